@@ -14,6 +14,7 @@ import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 
 /**
  * Main class - Entry point for the Kwazam Chess application.
@@ -26,7 +27,14 @@ public class ChessApp implements ActionListener {
     private static KwazamChessGUI kwazamChessGUI;
     private static final KwazamChess chessGame = new KwazamChess();
     private static final KwazamChessBoard chessboard = chessGame.chessboard;
+    private static final KwazamEngine engine = new KwazamEngine(64, Runtime.getRuntime().availableProcessors()); // Computer player, 64 MB hash
+    private static final long COMPUTER_MOVE_MILLIS = 1000; // Thinking time per computer move
+    private static final String TABLEBASE_DIRECTORY = "Tablebases"; // Endgame tables made by KwazamTablebaseGenerator
+    private static final String BOOK_FILE = "Book" + KwazamBook.EXTENSION; // Opening book made by KwazamBookBuilder
+    private static final String JOURNAL_FILE = "Game" + KwazamJournal.EXTENSION; // Every move, to pick the game up after a crash
     private BoardSquare selectedSquare = null; // Track the currently selected square
+    private boolean computerThinking = false; // Ignore the board while the computer picks a move
+    private int gameGeneration = 0; // Counts changes to the game, so a search of an old position is not played
     
 
     /**
@@ -36,6 +44,7 @@ public class ChessApp implements ActionListener {
     public ChessApp() {
         kwazamChessGUI = new KwazamChessGUI();
         setupLayout(); // Initialize menu, icons, and pieces.
+        openJournal(); // Pick up the last game if there was one.
         displayBoard(); // Display the chessboard.
 
         // Set the initial message with the team color
@@ -47,7 +56,7 @@ public class ChessApp implements ActionListener {
             int confirmDialog = JOptionPane.showConfirmDialog(null, "Are you willing to save the game?");
             if (confirmDialog == JOptionPane.YES_OPTION) {
                 try {
-                    chessGame.save(); // Save the game state.
+                    saveGame(); // Save the game state.
                 } catch (Exception exception) {
                     exception.printStackTrace();
                     JOptionPane.showMessageDialog(null, "Unable to save. Please try again later....");
@@ -62,11 +71,11 @@ kwazamChessGUI.addLoadMenuListener(e -> {
     int showConfirmDialog = JOptionPane.showConfirmDialog(null, "Are you willing to load the previous game?");
     if (showConfirmDialog == JOptionPane.YES_OPTION) {
         try {
-            chessGame.load(); // Load the saved game state.
-            updateGameStatus(false); // Refresh the board to reflect the loaded state.
-            String team = chessGame.getPlayerTurn().getColor();
-            kwazamChessGUI.setMessage("Let's move team " + team + ", now it is your turn!!!", team); // Pass team color
-            JOptionPane.showMessageDialog(null, "Game loaded successfully!");
+            if (loadGame()) { // Load the saved game state.
+                updateGameStatus(false); // Refresh the board to reflect the loaded state.
+                String team = chessGame.getPlayerTurn().getColor();
+                kwazamChessGUI.setMessage("Let's move team " + team + ", now it is your turn!!!", team); // Pass team color
+            }
         } catch (Exception exception) {
             exception.printStackTrace();
             JOptionPane.showMessageDialog(null, "Game failed to load! Please try again...");
@@ -81,6 +90,34 @@ kwazamChessGUI.addRestartMenuListener(e -> {
     String initialTeamRestart = chessGame.getPlayerTurn().getColor();
     kwazamChessGUI.setMessage("Game start! Team " + initialTeamRestart + " first.", initialTeamRestart); // Pass team color
 });
+
+// Let the computer play the move of the team whose turn it is.
+kwazamChessGUI.addComputerMoveMenuListener(e -> playComputerMove());
+
+// Tell the players when a move ends the game, and note every change to it.
+chessGame.getGame().addListener(new KwazamGame.Listener() {
+    @Override
+    public void moveMade(KwazamGame game, int move) {
+        gameGeneration++;
+    }
+
+    @Override
+    public void moveUndone(KwazamGame game, int move) {
+        gameGeneration++;
+    }
+
+    @Override
+    public void gameReset(KwazamGame game) {
+        gameGeneration++;
+    }
+
+    @Override
+    public void gameOver(KwazamGame game, KwazamGame.Result result) {
+        announceResult(game, result);
+    }
+});
+ loadTablebase();
+ loadBook();
  kwazamChessGUI.setVisible(true); // Display the game GUI.
 }
     /**
@@ -88,10 +125,35 @@ kwazamChessGUI.addRestartMenuListener(e -> {
      */ 
     private void setupLayout() {
         kwazamChessGUI.setupMenu(); // Configure the game menu.
-        kwazamChessGUI.setupIcons(); // Load icons for game pieces.
+        kwazamChessGUI.setupIcons(chessboard); // Load icons for game pieces.
         chessGame.setupPieces(); // Place game pieces on the board.
     }
 
+    /**
+     * Rebuilds the game from the journal if one was left behind, then keeps
+     * the journal of this game. The journal is told when to force its moves
+     * to the disk by the kwazam.journal property, e.g. "moves=1" or "millis=500".
+     */
+    private void openJournal() {
+        File file = new File(JOURNAL_FILE);
+        try {
+            if (file.exists()) {
+                chessGame.restore(KwazamJournal.recover(file));
+            }
+            KwazamJournal journal = KwazamJournal.open(file, chessGame.getGame(),
+                    System.getProperty("kwazam.journal", KwazamJournal.DEFAULT_OPTIONS));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.sync();
+                } catch (IOException e) {
+                    KwazamLog.log(KwazamLog.ERROR, "Cannot force the journal to the disk", e);
+                }
+            }, "KwazamJournal flush"));
+        } catch (IOException e) {
+            KwazamLog.log(KwazamLog.ERROR, "Cannot keep a journal of the game", e);
+        }
+    }
+
     /**
      * Handles button click events for making a move.
      * Checks if the move is valid, updates the board, and handles game state changes.
@@ -100,43 +162,38 @@ kwazamChessGUI.addRestartMenuListener(e -> {
      */
 @Override
 public void actionPerformed(ActionEvent e) {
+    if (computerThinking) {
+        return; // The board is busy until the computer has moved
+    }
     JButton button = (JButton) e.getSource();
     int buttonIndex = buttonArrayList.indexOf(button);
     if (buttonIndex < 0 || buttonIndex >= chessboard.getBoardSize()) {
-        System.out.println("Invalid button index: " + buttonIndex);
+        KwazamLog.log(KwazamLog.WARN, "Invalid button index: %d", buttonIndex);
         return;
     }
 
-    BoardSquare slot = chessboard.getSlot(buttonIndex);
-    System.out.println("Clicked on square: (" + slot.getRowPosition() + ", " + slot.getColPosition() + ")");
-    if (slot.hasPiece()) {
-        System.out.println("Square contains piece: " + slot.getPlacedPiece().getPieceName());
-    } else {
-        System.out.println("Square is empty");
-    }
+    BoardSquare slot = chessboard.getSlot(chessboard.toViewIndex(buttonIndex)); // Map the click back onto the board
+    KwazamLog.log(KwazamLog.TRACE, "Clicked on square: (%d, %d) holding %s", slot.getRowPosition(), slot.getColPosition(),
+            slot.hasPiece() ? slot.getPlacedPiece().getPieceName() : "nothing");
 
     if (selectedSquare == null) {
         // If no square is selected, check if the clicked square has a piece
         if (slot.hasPiece() && slot.getPlacedPiece().getOwner().equals(chessGame.getPlayerTurn())) {
             selectedSquare = slot;
-            System.out.println("Piece selected at: (" + selectedSquare.getRowPosition() + ", " + selectedSquare.getColPosition() + ")");
+            KwazamLog.log(KwazamLog.DEBUG, "Piece selected at: (%d, %d)", selectedSquare.getRowPosition(), selectedSquare.getColPosition());
             highlightValidMoves(selectedSquare); // Highlight valid moves
         }
     } else {
         // If a square is already selected, check if the clicked square is the same as the selected square
         if (slot == selectedSquare) {
             // If the same square is clicked again, reset the selection
-            System.out.println("Resetting selection for the same piece.");
+            KwazamLog.log(KwazamLog.DEBUG, "Resetting selection for the same piece.");
             clearHighlights();
             selectedSquare = null;
         } else {
             // Attempt to move the piece to the new square
-            System.out.println("Attempting to move from: (" + selectedSquare.getRowPosition() + ", " + selectedSquare.getColPosition() + ")");
-            System.out.println("Attempting to move to: (" + slot.getRowPosition() + ", " + slot.getColPosition() + ")");
-
             boolean moved = chessGame.move(selectedSquare, slot); // Pass both selectedSquare and destination slot
             if (moved) {
-                System.out.println("Move successful");
                 clearHighlights(); // Clear highlights after a successful move
                 selectedSquare = null; // Reset the selected square
 
@@ -152,7 +209,7 @@ public void actionPerformed(ActionEvent e) {
             } else {
                 // Show a pop-up window for invalid moves
                 JOptionPane.showMessageDialog(null, "Invalid move! Please try again.", "Invalid Move", JOptionPane.ERROR_MESSAGE);
-                System.out.println("Invalid move, resetting selection");
+                KwazamLog.log(KwazamLog.DEBUG, "Invalid move, resetting selection");
                 clearHighlights();
                 selectedSquare = null;
             }
@@ -160,6 +217,182 @@ public void actionPerformed(ActionEvent e) {
     }
 }
 
+    /**
+     * Asks the user for a file name and saves the game to it.
+     */
+    private void saveGame() throws IOException {
+        // Prompt the user to name the save file
+        String fileName = JOptionPane.showInputDialog(null, "Enter a name for the save file:", "Save Game", JOptionPane.PLAIN_MESSAGE);
+        if (fileName == null || fileName.trim().isEmpty()) {
+            JOptionPane.showMessageDialog(null, "Save cancelled. No file name provided.");
+            return; // User cancelled or entered an empty name
+        }
+
+        // Save in the binary format unless a .txt text export is asked for
+        if (!fileName.toLowerCase().endsWith(".txt") && !fileName.toLowerCase().endsWith(KwazamSaveFile.EXTENSION)) {
+            fileName += KwazamSaveFile.EXTENSION;
+        }
+
+        File saveFile = new File(fileName);
+
+        // Confirm before overwriting an existing file
+        if (saveFile.exists()) {
+            int overwrite = JOptionPane.showConfirmDialog(null,
+                "File already exists. Do you want to overwrite it?",
+                "Confirm Overwrite",
+                JOptionPane.YES_NO_OPTION);
+            if (overwrite != JOptionPane.YES_OPTION) {
+                return; // User chose not to overwrite
+            }
+        }
+
+        // Save the game state to the file
+        chessGame.save(saveFile);
+        JOptionPane.showMessageDialog(null, "Game saved successfully to " + fileName);
+    }
+
+    /**
+     * Asks the user to choose a save file and loads the game from it.
+     *
+     * @return Whether a game was loaded.
+     */
+    private boolean loadGame() throws IOException {
+        // Get a list of all save files and .txt exports in the current directory
+        File[] saveFiles = new File(".").listFiles((dir, name) -> name.toLowerCase().endsWith(KwazamSaveFile.EXTENSION)
+                || name.toLowerCase().endsWith(".txt"));
+
+        if (saveFiles == null || saveFiles.length == 0) {
+            JOptionPane.showMessageDialog(null, "No save files found.");
+            return false;
+        }
+
+        // Create a drop-down menu for the user to choose a file
+        String[] fileNames = new String[saveFiles.length];
+        for (int i = 0; i < saveFiles.length; i++) {
+            fileNames[i] = saveFiles[i].getName();
+        }
+
+        String selectedFileName = (String) JOptionPane.showInputDialog(null,
+            "Choose a save file to load:",
+            "Load Game",
+            JOptionPane.PLAIN_MESSAGE,
+            null,
+            fileNames,
+            fileNames[0]);
+
+        if (selectedFileName == null) {
+            JOptionPane.showMessageDialog(null, "Load cancelled. No file selected.");
+            return false; // User cancelled the selection
+        }
+
+        // Load the game state from the selected file
+        chessGame.load(new File(selectedFileName));
+        JOptionPane.showMessageDialog(null, "Game loaded successfully from " + selectedFileName);
+        return true;
+    }
+
+    /**
+     * Shows how the game ended.
+     *
+     * @param game The game that ended.
+     * @param result The result.
+     */
+    private static void announceResult(KwazamGame game, KwazamGame.Result result) {
+        if (result == KwazamGame.Result.DRAW) {
+            String team = KwazamPosition.colorName(game.getSideToMove());
+            JOptionPane.showMessageDialog(null, "Draw! Team " + team + " has no move to play.");
+        } else {
+            String winner = KwazamPosition.colorName(result == KwazamGame.Result.BLUE_WINS ? KwazamPosition.BLUE : KwazamPosition.RED);
+            JOptionPane.showMessageDialog(null, "Team " + winner + " wins by capturing the Sau!");
+        }
+    }
+
+    /**
+     * Gives the computer player the endgame tables, if they have been generated.
+     */
+    private static void loadTablebase() {
+        File directory = new File(TABLEBASE_DIRECTORY);
+        if (!directory.isDirectory()) {
+            return;
+        }
+        try {
+            engine.setTablebase(new KwazamTablebase(directory));
+        } catch (IOException exception) {
+            exception.printStackTrace(); // Play on without them
+        }
+    }
+
+    /**
+     * Gives the computer player the opening book, if one has been built.
+     */
+    private static void loadBook() {
+        File bookFile = new File(BOOK_FILE);
+        if (!bookFile.isFile()) {
+            return;
+        }
+        try {
+            engine.setBook(new KwazamBook(bookFile));
+        } catch (IOException exception) {
+            exception.printStackTrace(); // Play on without it
+        }
+    }
+
+    /**
+     * Lets the engine pick and play a move for the team whose turn it is.
+     * The search runs off the event thread, so the window stays responsive.
+     */
+    private void playComputerMove() {
+        if (computerThinking) {
+            return;
+        }
+        if (chessGame.getGame().isOver()) {
+            JOptionPane.showMessageDialog(null, "The game is already over.");
+            return;
+        }
+        computerThinking = true;
+        kwazamChessGUI.setGameMenusEnabled(false); // No loading or resetting under the search
+        final int generation = gameGeneration;
+        clearHighlights();
+        selectedSquare = null;
+        String team = chessGame.getPlayerTurn().getColor();
+        kwazamChessGUI.setMessage("Team " + team + " computer is thinking...", team);
+
+        KwazamPosition position = new KwazamPosition(chessboard.getPosition());
+        new SwingWorker<KwazamEngine.SearchResult, Void>() {
+            @Override
+            protected KwazamEngine.SearchResult doInBackground() {
+                return engine.search(position, KwazamEngine.MAX_PLY, COMPUTER_MOVE_MILLIS);
+            }
+
+            @Override
+            protected void done() {
+                computerThinking = false;
+                kwazamChessGUI.setGameMenusEnabled(true);
+                try {
+                    KwazamEngine.SearchResult result = get();
+                    if (generation != gameGeneration) {
+                        KwazamLog.log(KwazamLog.INFO, "Dropping a computer move for a game that has changed");
+                        return;
+                    }
+                    int move = result.getMove();
+                    if (move == KwazamMove.NONE) {
+                        JOptionPane.showMessageDialog(null, "Team " + team + " has no move to play.");
+                        updateGameStatus(false);
+                        return;
+                    }
+                    KwazamLog.log(KwazamLog.INFO, "Computer plays %s (%s)", KwazamMove.toString(move), result);
+                    chessGame.move(chessboard.getSquareSlot(KwazamMove.from(move)), chessboard.getSquareSlot(KwazamMove.to(move)));
+                    updateGameStatus(false); // Refresh the board
+                    kwazamChessGUI.updateMoveCounter(chessGame.getPlayerTurnNum());
+                } catch (Exception exception) {
+                    exception.printStackTrace();
+                    JOptionPane.showMessageDialog(null, "The computer could not find a move.");
+                    updateGameStatus(false);
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Loads an image from the given path and optionally flips it vertically.
      *
@@ -210,19 +443,19 @@ public void actionPerformed(ActionEvent e) {
      * @param index The index of the chessboard slot.
      */
     private void createButtonForSlot(int index) {
-    BoardSquare slot = chessboard.getSlot(index);
+    BoardSquare slot = chessboard.getSlot(chessboard.toViewIndex(index));
     ChessPiece piece = slot.getPlacedPiece();
     Image image = null;
 
     if (piece != null) {
         if (piece.getOwner().equals(chessGame.getPlayerTurn())) {
-            if (piece.getPieceName().equals("Ram") && piece.hasReachedEnd()) {
+            if (piece.getType() == PieceType.RAM && piece.hasReachedEnd()) {
                 image = loadImage(chessboard.getIcon(piece.getPieceName() + piece.getOwner().getColor()), true);
             } else {
                 image = loadImage(chessboard.getIcon(piece.getPieceName() + piece.getOwner().getColor()), false);
             }
         } else {
-            if (piece.getPieceName().equals("Ram") && piece.hasReachedEnd()) {
+            if (piece.getType() == PieceType.RAM && piece.hasReachedEnd()) {
                 image = loadImage(chessboard.getIcon(piece.getPieceName() + piece.getOwner().getColor()), false);
             } else {
                 image = loadImage(chessboard.getIcon(piece.getPieceName() + piece.getOwner().getColor()), true);
@@ -247,8 +480,11 @@ public void actionPerformed(ActionEvent e) {
 
     /**
      * Displays the entire chessboard by creating buttons for all slots.
+     * The board is drawn turned around while it is Red's turn, so the player
+     * to move always sees their own pieces at the bottom.
      */
     private void displayBoard() {
+        chessboard.setFlipped(chessGame.getPlayerTurn().getColor().equals("R"));
         for (int i = 0; i < chessboard.getBoardSize(); i++) {
             createButtonForSlot(i); // Setup buttons for each slot.
         }
@@ -280,7 +516,7 @@ private void updateGameStatus(boolean endGame) {
 private void highlightValidMoves(BoardSquare square) {
     List<BoardSquare> validMoves = chessGame.getValidMoves(square);
     for (BoardSquare move : validMoves) {
-        int index = move.getRowPosition() * chessboard.getWidth() + move.getColPosition();
+        int index = chessboard.toViewIndex(move.getRowPosition() * chessboard.getWidth() + move.getColPosition());
         JButton button = buttonArrayList.get(index);
         button.setBackground(Color.GREEN); // Highlight valid moves with green
         button.addActionListener(this); // Re-add the ActionListener
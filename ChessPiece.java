@@ -1,14 +1,17 @@
 /**
  * This class represents a piece in the chess game.
- * It keeps track of the piece's name, the player who owns it,
+ * It keeps track of the piece's type, the player who owns it,
  * and whether the piece has reached the board's opposite end.
+ * Once placed on a board, a Xor or Tor reads its type through the
+ * board's Xor/Tor phase, so the transformation never touches the pieces.
  * @author Low Wan Jin
  */
 public class ChessPiece {
 
-    // Fields to store the piece's name, the owning player, 
+    // Fields to store the piece's type, the owning player, 
     // and whether it has reached the board's opposite end.
-    private String pieceName;
+    private PieceType type; // The type while the Xor/Tor phase is off
+    private KwazamPosition board; // Position whose phase the type is read through, once placed
     private Player owner;
     private boolean hasReachedEnd;
     private boolean isFacingUp;
@@ -20,14 +23,14 @@ public class ChessPiece {
     private boolean tempStatus;
 
     /**
-     * Constructs a new ChessPiece instance with the specified name, owner, and end status.
+     * Constructs a new ChessPiece instance with the specified type, owner, and end status.
      * 
-     * @param pieceName The name of the chess piece.
+     * @param type The type of the chess piece.
      * @param owner The player who owns this piece.
      * @param hasReachedEnd Indicates if the piece has reached the board's opposite end.
      */
-    public ChessPiece(String pieceName, Player owner, boolean hasReachedEnd) {
-        this.pieceName = pieceName;
+    public ChessPiece(PieceType type, Player owner, boolean hasReachedEnd) {
+        this.type = type;
         this.owner = owner;
         this.hasReachedEnd = hasReachedEnd;
         this.isFacingUp = owner.getColor().equals("B");  // Blue facing upwards by default
@@ -39,12 +42,48 @@ public class ChessPiece {
     }
 
     /**
-     * Sets the name of the chess piece.
+     * Constructs a new ChessPiece instance with the specified name, owner, and end status.
+     * 
+     * @param pieceName The name of the chess piece, e.g. "Ram".
+     * @param owner The player who owns this piece.
+     * @param hasReachedEnd Indicates if the piece has reached the board's opposite end.
+     */
+    public ChessPiece(String pieceName, Player owner, boolean hasReachedEnd) {
+        this(PieceType.fromName(pieceName), owner, hasReachedEnd);
+    }
+
+    /**
+     * Sets the type of the chess piece.
+     * 
+     * @param type The type of the chess piece.
+     */
+    public void setType(PieceType type) {
+        this.type = type.phased(isPhaseFlipped());
+    }
+
+    /**
+     * Retrieves the type of the chess piece.
+     * 
+     * @return The type of the chess piece.
+     */
+    public PieceType getType() {
+        return type.phased(isPhaseFlipped());
+    }
+
+    private boolean isPhaseFlipped() {
+        return board != null && board.isPhaseFlipped();
+    }
+
+    /**
+     * Makes the piece read its type through a board's Xor/Tor phase from now
+     * on. It keeps the type it has at the moment.
      * 
-     * @param pieceName The name of the chess piece.
+     * @param board The position of the board the piece is placed on.
      */
-    public void setPieceName(String pieceName) {
-        this.pieceName = pieceName;
+    void placeOn(KwazamPosition board) {
+        PieceType current = getType();
+        this.board = board;
+        setType(current);
     }
 
     /**
@@ -62,7 +101,7 @@ public class ChessPiece {
      * @return The name of the chess piece.
      */
     public String getPieceName() {
-        return pieceName;
+        return getType().getName();
     }
     
     public boolean isFacingUp() {
@@ -114,7 +153,7 @@ public class ChessPiece {
     @Override
     public String toString() {
         return "ChessPiece{" +
-                "pieceName='" + pieceName + '\'' +
+                "type=" + getType() +
                 ", owner=" + owner +
                 ", hasReachedEnd=" + hasReachedEnd +
                 '}';
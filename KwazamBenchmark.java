@@ -0,0 +1,283 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the rules, board and save file hot paths of Kwazam Chess.
+ * Every benchmark runs over a corpus of mid-game positions reached by seeded
+ * random play from the starting layout, plus BlueSample.txt when it is present.
+ * Each one is warmed up, then timed over several fixed-length iterations, and
+ * reports its throughput and the bytes it allocates per operation, measured
+ * with the per-thread allocation counter of the JVM. The game logic logs
+ * through KwazamLog, so leave kwazam.log.level at its default (WARN) to keep
+ * its TRACE and DEBUG messages out of the measurement.
+ *
+ * Usage: java KwazamBenchmark [filter] [-millis n]
+ */
+public class KwazamBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final int CORPUS_SIZE = 32;
+    private static final long SEED = 20250126L;
+
+    // Results are folded in here so the JIT cannot drop the work being measured.
+    private static volatile long sink;
+
+    /**
+     * One benchmarked operation. The argument counts up from zero and can be
+     * used to walk through the corpus.
+     */
+    private interface Operation {
+        long run(int i);
+    }
+
+    private final List<KwazamChess> corpus = new ArrayList<>();
+    private final List<BoardSquare[]> corpusMoves = new ArrayList<>(); // Game index is implied by position
+    private final List<int[]> validations = new ArrayList<>(); // {game, piece type, fromX, fromY, toX, toY}
+    private final long iterationMillis;
+    private final String filter;
+    private KwazamChess loadTarget;
+
+    private KwazamBenchmark(long iterationMillis, String filter) {
+        this.iterationMillis = iterationMillis;
+        this.filter = filter;
+    }
+
+    // Builds the corpus of mid-game positions and the moves and validations run over it.
+    private void buildCorpus() throws IOException {
+        Random random = new Random(SEED);
+        for (int g = 0; g < CORPUS_SIZE; g++) {
+            KwazamChess game = new KwazamChess();
+            int plies = 12 + random.nextInt(30);
+            for (int ply = 0; ply < plies; ply++) {
+                List<BoardSquare[]> moves = quietMoves(game);
+                if (moves.isEmpty()) {
+                    break;
+                }
+                BoardSquare[] move = moves.get(random.nextInt(moves.size()));
+                game.move(move[0], move[1]);
+            }
+            corpus.add(game);
+        }
+        File sample = new File("BlueSample.txt");
+        if (sample.exists()) {
+            KwazamChess game = new KwazamChess();
+            game.load(sample);
+            corpus.add(game);
+        }
+        loadTarget = new KwazamChess();
+
+        for (int g = 0; g < corpus.size(); g++) {
+            KwazamChess game = corpus.get(g);
+            List<BoardSquare[]> moves = quietMoves(game);
+            corpusMoves.add(moves.isEmpty() ? null : moves.get(random.nextInt(moves.size())));
+
+            int side = KwazamPosition.colorOf(game.getPlayerTurn().getColor());
+            for (BoardSquare from : game.chessboard.getPieceSlots(side)) {
+                ChessPiece piece = from.getPlacedPiece();
+                for (BoardSquare to : game.chessboard.getSlots()) {
+                    validations.add(new int[]{g, piece.getType().code(),
+                        from.getRowPosition(), from.getColPosition(), to.getRowPosition(), to.getColPosition()});
+                }
+            }
+        }
+    }
+
+    // Gets the moves of the player to move that do not end the game.
+    private static List<BoardSquare[]> quietMoves(KwazamChess game) {
+        List<BoardSquare[]> moves = new ArrayList<>();
+        int side = KwazamPosition.colorOf(game.getPlayerTurn().getColor());
+        for (BoardSquare from : game.chessboard.getPieceSlots(side)) {
+            for (BoardSquare to : game.getValidMoves(from)) {
+                ChessPiece target = to.getPlacedPiece();
+                if (target == null || target.getType() != PieceType.SAU) {
+                    moves.add(new BoardSquare[]{from, to});
+                }
+            }
+        }
+        return moves;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Runs the operation until the iteration time is up and returns {operations, nanoseconds, bytes}.
+    private long[] iteration(Operation operation) {
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + iterationMillis * 1_000_000L;
+        long ops = 0;
+        long result = 0;
+        long now;
+        do {
+            for (int k = 0; k < 256; k++) {
+                result += operation.run((int) ops++);
+            }
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = allocatedBytes() - bytesBefore;
+        sink += result;
+        return new long[]{ops, now - start, bytes};
+    }
+
+    private void bench(String name, Operation operation) {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long[] result = iteration(operation);
+            ops += result[0];
+            nanos += result[1];
+            bytes += result[2];
+        }
+        System.out.printf("%-32s %14.0f ops/s %12.1f ns/op %10.1f B/op %10.1f MB/s alloc%n",
+                name, ops * 1e9 / nanos, (double) nanos / ops, (double) bytes / ops, bytes * 1e3 / nanos);
+    }
+
+    private void runAll() throws IOException {
+        final int games = corpus.size();
+
+        bench("KwazamChess.move+undo", i -> {
+            int g = i % games;
+            BoardSquare[] move = corpusMoves.get(g);
+            if (move == null) {
+                return 0;
+            }
+            KwazamChess game = corpus.get(g);
+            boolean moved = game.move(move[0], move[1]);
+            game.undo();
+            return moved ? 1 : 0;
+        });
+
+        bench("KwazamChess.getValidMoves", i -> {
+            KwazamChess game = corpus.get(i % games);
+            long total = 0;
+            for (BoardSquare square : game.chessboard.getSlots()) {
+                total += game.getValidMoves(square).size();
+            }
+            return total;
+        });
+
+        for (int type = KwazamPosition.RAM; type <= KwazamPosition.SAU; type++) {
+            final List<int[]> checks = new ArrayList<>();
+            for (int[] check : validations) {
+                if (check[1] == type) {
+                    checks.add(check);
+                }
+            }
+            if (checks.isEmpty()) {
+                continue;
+            }
+            final PieceType pieceType = PieceType.fromCode(type);
+            bench("KwazamChess.isValidMove(" + pieceType.getName() + ")", i -> {
+                int[] check = checks.get(i % checks.size());
+                KwazamChess game = corpus.get(check[0]);
+                ChessPiece piece = game.chessboard.getSlot(check[2], check[3]).getPlacedPiece();
+                return game.isValidMove(pieceType, check[2], check[3], check[4], check[5], piece) ? 1 : 0;
+            });
+        }
+
+        bench("KwazamChessBoard.reverse", i -> {
+            KwazamChessBoard board = corpus.get(i % games).chessboard;
+            board.reverse();
+            return board.isFlipped() ? 1 : 0;
+        });
+
+        // On scratch copies, since the games' phase may only change through their moves.
+        // Twice per operation, so each copy is left in the phase it was made in.
+        final List<KwazamPosition> scratch = new ArrayList<>();
+        for (KwazamChess game : corpus) {
+            scratch.add(new KwazamPosition(game.chessboard.getPosition()));
+        }
+        bench("KwazamPosition.togglePhase x2", i -> {
+            KwazamPosition position = scratch.get(i % games);
+            position.togglePhase();
+            position.togglePhase();
+            return position.key();
+        });
+
+        bench("KwazamChess.getWinner", i -> {
+            String winner = corpus.get(i % games).getWinner();
+            return winner == null ? 0 : 1;
+        });
+
+        final File saveFile = File.createTempFile("kwazam-bench", ".txt");
+        saveFile.deleteOnExit();
+        final KwazamChess target = loadTarget;
+        bench("KwazamChess.save+load", i -> {
+            try {
+                corpus.get(i % games).save(saveFile);
+                target.load(saveFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return target.getPlayerTurnNum();
+        });
+
+        // The text saves of the corpus, parsed from memory as a batch analysis would
+        final List<ByteBuffer> texts = new ArrayList<>();
+        for (KwazamChess game : corpus) {
+            game.save(saveFile);
+            texts.add(ByteBuffer.wrap(Files.readAllBytes(saveFile.toPath())));
+        }
+        final KwazamTextSaveParser parser = new KwazamTextSaveParser();
+        final KwazamPosition parsed = new KwazamPosition();
+        bench("KwazamTextSaveParser.parse", i -> {
+            ByteBuffer text = texts.get(i % games);
+            text.rewind();
+            try {
+                parser.parse(text, parsed);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return parsed.key();
+        });
+
+        final File binaryFile = File.createTempFile("kwazam-bench", KwazamSaveFile.EXTENSION);
+        binaryFile.deleteOnExit();
+        bench("KwazamChess.save+load (binary)", i -> {
+            try {
+                corpus.get(i % games).save(binaryFile);
+                target.load(binaryFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return target.getPlayerTurnNum();
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        long millis = 1000;
+        String filter = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-millis")) {
+                millis = Long.parseLong(args[++i]);
+            } else {
+                filter = args[i];
+            }
+        }
+
+        KwazamBenchmark benchmark = new KwazamBenchmark(millis, filter);
+        benchmark.buildCorpus();
+        System.out.println("Corpus: " + benchmark.corpus.size() + " positions, "
+                + WARMUP_ITERATIONS + " warm-up and " + MEASURE_ITERATIONS + " measured iterations of " + millis + " ms");
+        benchmark.runAll();
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
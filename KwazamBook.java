@@ -0,0 +1,264 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Opening book for Kwazam Chess, as written by KwazamBookBuilder.
+ *
+ * The book is one file of fixed-size entries, one for every move played from
+ * every position in the games it was built from, sorted by position key and
+ * then by move. It is memory-mapped read-only, so looking a position up is a
+ * binary search over the mapping and costs no more than a few page reads.
+ *
+ * Each entry counts the games the move was played in, the same count weighted
+ * by how much each source of games was trusted, and the weighted score of the
+ * side that played it, in half points.
+ */
+public class KwazamBook implements Closeable {
+
+    public static final String EXTENSION = ".kbk";
+
+    static final int MAGIC = 0x314B424B; // "KBK1" when read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    // Header layout: magic, version, then the number of entries.
+    static final int VERSION_OFFSET = 4;
+    static final int COUNT_OFFSET = 8;
+    // Entry layout: position key, packed move, games, weighted games, weighted half points.
+    static final int ENTRY_BYTES = 24;
+    static final int MOVE_OFFSET = 8;
+    static final int GAMES_OFFSET = 12;
+    static final int WEIGHT_OFFSET = 16;
+    static final int SCORE_OFFSET = 20;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final int size;
+    private volatile int minGames = 1;
+
+    /**
+     * Maps a book file.
+     *
+     * @param bookFile The book file.
+     * @throws IOException If the file cannot be mapped or is not a book.
+     */
+    public KwazamBook(File bookFile) throws IOException {
+        file = new RandomAccessFile(bookFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a Kwazam opening book: " + bookFile);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a Kwazam opening book: " + bookFile);
+            }
+            if (buffer.get(VERSION_OFFSET) != VERSION) {
+                throw new IOException("Unsupported book version " + buffer.get(VERSION_OFFSET) + ": " + bookFile);
+            }
+            size = buffer.getInt(COUNT_OFFSET);
+            if (buffer.capacity() != HEADER_BYTES + (long) size * ENTRY_BYTES) {
+                throw new IOException("Book " + bookFile + " has the wrong size for " + size + " entries");
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of entries, one per position and move.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMinGames() {
+        return minGames;
+    }
+
+    /**
+     * Sets how many games a move must have been played in for pick() to
+     * choose it, on top of any threshold the book was built with.
+     *
+     * @param minGames The least number of games.
+     */
+    public void setMinGames(int minGames) {
+        this.minGames = Math.max(1, minGames);
+    }
+
+    /**
+     * Gets an entry by its place in the book.
+     *
+     * @param index The entry index, from 0 to size() - 1.
+     * @return The entry.
+     */
+    public Entry get(int index) {
+        int at = HEADER_BYTES + index * ENTRY_BYTES;
+        return new Entry(buffer.getLong(at), buffer.getInt(at + MOVE_OFFSET), buffer.getInt(at + GAMES_OFFSET),
+                buffer.getInt(at + WEIGHT_OFFSET), buffer.getInt(at + SCORE_OFFSET));
+    }
+
+    private long keyAt(int index) {
+        return buffer.getLong(HEADER_BYTES + index * ENTRY_BYTES);
+    }
+
+    // The index of the first entry with a key, or of the first entry after it if there is none.
+    private int firstIndex(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keyAt(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the book moves of a position that are legal in it.
+     *
+     * @param position The position.
+     * @return The entries of its moves, in move order; empty if it is not in the book.
+     */
+    public List<Entry> lookup(KwazamPosition position) {
+        List<Entry> entries = new ArrayList<>();
+        long key = position.key();
+        for (int i = firstIndex(key); i < size && keyAt(i) == key; i++) {
+            Entry entry = get(i);
+            if (KwazamMoveGenerator.isLegal(position, entry.getMove())) { // Guards against key collisions
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Chooses a book move at random, more often the more it was played and
+     * the better it scored, among those played in at least getMinGames() games.
+     *
+     * @param position The position.
+     * @param random The source of randomness.
+     * @return The packed move, or KwazamMove.NONE if the book has no move here.
+     */
+    public int pick(KwazamPosition position, Random random) {
+        long key = position.key();
+        int first = firstIndex(key);
+        int end = first;
+        double total = 0;
+        while (end < size && keyAt(end) == key) {
+            total += choiceWeight(end);
+            end++;
+        }
+        if (total <= 0) {
+            return KwazamMove.NONE;
+        }
+        double target = random.nextDouble() * total;
+        int chosen = KwazamMove.NONE;
+        for (int i = first; i < end; i++) {
+            double weight = choiceWeight(i);
+            if (weight > 0) {
+                chosen = buffer.getInt(HEADER_BYTES + i * ENTRY_BYTES + MOVE_OFFSET);
+                target -= weight;
+                if (target < 0) {
+                    break;
+                }
+            }
+        }
+        return KwazamMoveGenerator.isLegal(position, chosen) ? chosen : KwazamMove.NONE;
+    }
+
+    // How likely pick() is to choose an entry: its weighted games times its expected score, with one
+    // drawn game added so that a move played once is neither certain nor hopeless.
+    private double choiceWeight(int index) {
+        int at = HEADER_BYTES + index * ENTRY_BYTES;
+        if (buffer.getInt(at + GAMES_OFFSET) < minGames) {
+            return 0;
+        }
+        double weight = buffer.getInt(at + WEIGHT_OFFSET);
+        double score = buffer.getInt(at + SCORE_OFFSET);
+        return weight * (score + 1) / (2 * weight + 2);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * One move of one position in the book.
+     */
+    public static class Entry {
+        private final long key;
+        private final int move;
+        private final int games;
+        private final int weight;
+        private final int score;
+
+        Entry(long key, int move, int games, int weight, int score) {
+            this.key = key;
+            this.move = move;
+            this.games = games;
+            this.weight = weight;
+            this.score = score;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public int getMove() {
+            return move;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        /**
+         * Gets the games weighted by the trust in their source.
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Gets the weighted score of the side that played the move, in half points.
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s games %d weight %d score %.1f%%", KwazamMove.toString(move), games, weight,
+                    weight == 0 ? 0.0 : 50.0 * score / weight);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java KwazamBook bookFile [saveFile]");
+            return;
+        }
+        try (KwazamBook book = new KwazamBook(new File(args[0]))) {
+            System.out.println(book.size() + " entries");
+            KwazamPosition position = args.length > 1
+                    ? KwazamPerft.loadPosition(new File(args[1])) : KwazamPerft.startPosition();
+            System.out.println(position);
+            for (Entry entry : book.lookup(position)) {
+                System.out.println(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds KwazamBook opening books from game records.
+ *
+ * A record file holds one game per line: its moves from the starting
+ * position in coordinate notation, e.g. "c2c3 b7b6", optionally followed by
+ * the result, "1-0" for a Blue win, "0-1" for a Red win, or "1/2-1/2" or "*"
+ * for a draw or an unknown result. Lines starting with # are comments.
+ *
+ * The first plies of every game are counted per position key and move. Every
+ * record file can be given a weight, so that games from a trusted source
+ * count for more. Books built separately, e.g. on several machines, are
+ * merged by streaming through them side by side, as every book is sorted.
+ *
+ * Usage: java KwazamBookBuilder bookFile [-plies n] [-min n] [-threads n] [-weight w] recordFile...
+ *        java KwazamBookBuilder -merge bookFile [-min n] book...
+ */
+public class KwazamBookBuilder {
+
+    public static final int DEFAULT_PLIES = 16;
+
+    // Results as Blue's score in half points.
+    public static final int BLUE_WINS = 2;
+    public static final int DRAW = 1;
+    public static final int RED_WINS = 0;
+
+    private final int maxPlies;
+    private final KwazamPosition start;
+    // Games, weighted games and weighted half points of every move, by position key and then by move.
+    private final Map<Long, Map<Integer, int[]>> positions = new HashMap<>();
+    private int games;
+
+    /**
+     * Creates an empty builder.
+     *
+     * @param maxPlies How many plies of each game to take into the book.
+     */
+    public KwazamBookBuilder(int maxPlies) {
+        this.maxPlies = maxPlies;
+        this.start = KwazamPerft.startPosition();
+    }
+
+    public int getGames() {
+        return games;
+    }
+
+    /**
+     * Counts the opening of one game.
+     *
+     * @param moves The packed moves of the game from the starting position.
+     * @param blueScore The result as Blue's score in half points: BLUE_WINS, DRAW or RED_WINS.
+     * @param weight How much the game counts for.
+     */
+    public void addGame(int[] moves, int blueScore, int weight) {
+        KwazamPosition position = new KwazamPosition(start);
+        for (int ply = 0; ply < Math.min(moves.length, maxPlies); ply++) {
+            int score = position.sideToMove() == KwazamPosition.BLUE ? blueScore : 2 - blueScore;
+            int[] counts = positions.computeIfAbsent(position.key(), key -> new HashMap<>())
+                    .computeIfAbsent(moves[ply], move -> new int[3]);
+            counts[0]++;
+            counts[1] += weight;
+            counts[2] += weight * score;
+            position.makeMove(moves[ply]);
+        }
+        games++;
+    }
+
+    /**
+     * Counts the openings of every game in a record file.
+     *
+     * @param recordFile The record file.
+     * @param weight How much each of its games counts for.
+     * @return The number of games read.
+     * @throws IOException If the file cannot be read or holds an illegal move.
+     */
+    public int addRecords(File recordFile, int weight) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(recordFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                int blueScore = DRAW;
+                int moveCount = tokens.length;
+                String last = tokens[tokens.length - 1];
+                if (isResult(last)) {
+                    blueScore = last.equals("1-0") ? BLUE_WINS : last.equals("0-1") ? RED_WINS : DRAW;
+                    moveCount--;
+                }
+                KwazamPosition position = new KwazamPosition(start);
+                int[] moves = new int[Math.min(moveCount, maxPlies)];
+                for (int i = 0; i < moves.length; i++) {
+                    moves[i] = KwazamMoveGenerator.parseMove(position, tokens[i]);
+                    if (moves[i] == KwazamMove.NONE) {
+                        throw new IOException(recordFile + ":" + lineNumber + ": illegal move " + tokens[i]);
+                    }
+                    position.makeMove(moves[i]);
+                }
+                addGame(moves, blueScore, weight);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isResult(String token) {
+        return token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*");
+    }
+
+    /**
+     * Formats a game as a line of a record file.
+     *
+     * @param moves The packed moves of the game.
+     * @param blueScore The result as Blue's score in half points, or -1 if it is unknown.
+     * @return The record line.
+     */
+    public static String formatRecord(int[] moves, int blueScore) {
+        StringBuilder sb = new StringBuilder();
+        for (int move : moves) {
+            sb.append(KwazamMove.toString(move)).append(' ');
+        }
+        sb.append(blueScore == BLUE_WINS ? "1-0" : blueScore == RED_WINS ? "0-1" : blueScore == DRAW ? "1/2-1/2" : "*");
+        return sb.toString();
+    }
+
+    /**
+     * Adds everything another builder has counted to this one.
+     *
+     * @param other The other builder, built with the same number of plies.
+     */
+    public void addAll(KwazamBookBuilder other) {
+        for (Map.Entry<Long, Map<Integer, int[]>> position : other.positions.entrySet()) {
+            Map<Integer, int[]> moves = positions.computeIfAbsent(position.getKey(), key -> new HashMap<>());
+            for (Map.Entry<Integer, int[]> move : position.getValue().entrySet()) {
+                int[] counts = moves.computeIfAbsent(move.getKey(), key -> new int[3]);
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += move.getValue()[i];
+                }
+            }
+        }
+        games += other.games;
+    }
+
+    /**
+     * Writes the book.
+     *
+     * @param bookFile The file to write, replaced if it exists.
+     * @param minGames The least number of games a move must have been played in to be kept.
+     * @return The number of entries written.
+     * @throws IOException If the book cannot be written.
+     */
+    public int write(File bookFile, int minGames) throws IOException {
+        long[] keys = new long[positions.size()];
+        int n = 0;
+        for (long key : positions.keySet()) {
+            keys[n++] = key;
+        }
+        Arrays.sort(keys);
+        try (EntryWriter writer = new EntryWriter(bookFile)) {
+            for (long key : keys) {
+                for (Map.Entry<Integer, int[]> move : new TreeMap<>(positions.get(key)).entrySet()) {
+                    int[] counts = move.getValue();
+                    if (counts[0] >= minGames) {
+                        writer.add(key, move.getKey(), counts[0], counts[1], counts[2]);
+                    }
+                }
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Merges books into one, adding up the entries they share.
+     *
+     * @param bookFile The file to write, replaced if it exists.
+     * @param minGames The least number of games a move must have been played in to be kept.
+     * @param books The books to merge.
+     * @return The number of entries written.
+     * @throws IOException If a book cannot be read or the result cannot be written.
+     */
+    public static int merge(File bookFile, int minGames, List<KwazamBook> books) throws IOException {
+        int[] next = new int[books.size()];
+        KwazamBook.Entry[] heads = new KwazamBook.Entry[books.size()];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = books.get(i).size() > 0 ? books.get(i).get(next[i]++) : null;
+        }
+        try (EntryWriter writer = new EntryWriter(bookFile)) {
+            while (true) {
+                // The smallest key and move at the head of any book
+                KwazamBook.Entry smallest = null;
+                for (KwazamBook.Entry head : heads) {
+                    if (head != null && (smallest == null || compare(head, smallest) < 0)) {
+                        smallest = head;
+                    }
+                }
+                if (smallest == null) {
+                    return writer.finish();
+                }
+                int games = 0;
+                int weight = 0;
+                int score = 0;
+                for (int i = 0; i < heads.length; i++) {
+                    while (heads[i] != null && compare(heads[i], smallest) == 0) {
+                        games += heads[i].getGames();
+                        weight += heads[i].getWeight();
+                        score += heads[i].getScore();
+                        heads[i] = next[i] < books.get(i).size() ? books.get(i).get(next[i]++) : null;
+                    }
+                }
+                if (games >= minGames) {
+                    writer.add(smallest.getKey(), smallest.getMove(), games, weight, score);
+                }
+            }
+        }
+    }
+
+    private static int compare(KwazamBook.Entry a, KwazamBook.Entry b) {
+        int byKey = Long.compare(a.getKey(), b.getKey());
+        return byKey != 0 ? byKey : Integer.compare(a.getMove(), b.getMove());
+    }
+
+    /**
+     * Writes entries, which must come in order, to a temporary file that
+     * replaces the book once it is complete.
+     */
+    private static class EntryWriter implements Closeable {
+        private final File target;
+        private final File temporary;
+        private final FileOutputStream out;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(KwazamBook.ENTRY_BYTES * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        private int count;
+        private boolean finished;
+
+        EntryWriter(File target) throws IOException {
+            this.target = target;
+            this.temporary = new File(target.getPath() + ".tmp");
+            this.out = new FileOutputStream(temporary);
+            this.channel = out.getChannel();
+            buffer.position(KwazamBook.HEADER_BYTES); // Filled in once the count is known
+        }
+
+        void add(long key, int move, int games, int weight, int score) throws IOException {
+            if (buffer.remaining() < KwazamBook.ENTRY_BYTES) {
+                flush();
+            }
+            buffer.putLong(key).putInt(move).putInt(games).putInt(weight).putInt(score);
+            count++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Completes the book and puts it in place of the old one.
+        int finish() throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(KwazamBook.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, KwazamBook.MAGIC);
+            header.put(KwazamBook.VERSION_OFFSET, (byte) KwazamBook.VERSION);
+            header.putInt(KwazamBook.COUNT_OFFSET, count);
+            channel.write(header, 0);
+            out.close();
+            if ((target.exists() && !target.delete()) || !temporary.renameTo(target)) {
+                throw new IOException("Cannot rename " + temporary + " to " + target);
+            }
+            finished = true;
+            return count;
+        }
+
+        // Throws away the temporary file of a book that was not finished.
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                temporary.delete();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java KwazamBookBuilder bookFile [-plies n] [-min n] [-threads n] [-weight w] recordFile...");
+            System.out.println("       java KwazamBookBuilder -merge bookFile [-min n] book...");
+            return;
+        }
+        boolean merge = args[0].equals("-merge");
+        File bookFile = new File(args[merge ? 1 : 0]);
+        int plies = DEFAULT_PLIES;
+        int minGames = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int weight = 1;
+        List<File> inputs = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (int i = merge ? 2 : 1; i < args.length; i++) {
+            if (args[i].equals("-plies")) {
+                plies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-min")) {
+                minGames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-weight")) {
+                weight = Integer.parseInt(args[++i]); // For the record files after it
+            } else {
+                inputs.add(new File(args[i]));
+                weights.add(weight);
+            }
+        }
+
+        long start = System.nanoTime();
+        if (merge) {
+            List<KwazamBook> books = new ArrayList<>();
+            try {
+                for (File input : inputs) {
+                    books.add(new KwazamBook(input));
+                }
+                int entries = merge(bookFile, minGames, books);
+                System.out.println("Merged " + books.size() + " books into " + entries + " entries");
+            } finally {
+                for (KwazamBook book : books) {
+                    book.close();
+                }
+            }
+        } else {
+            // Every thread counts its share of the record files, then the counts are added up
+            int workers = Math.max(1, Math.min(threads, inputs.size()));
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            List<Future<KwazamBookBuilder>> parts = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                final int first = w;
+                final int maxPlies = plies;
+                parts.add(pool.submit(() -> {
+                    KwazamBookBuilder part = new KwazamBookBuilder(maxPlies);
+                    for (int i = first; i < inputs.size(); i += workers) {
+                        part.addRecords(inputs.get(i), weights.get(i));
+                    }
+                    return part;
+                }));
+            }
+            KwazamBookBuilder builder;
+            try {
+                builder = parts.get(0).get();
+                for (int w = 1; w < parts.size(); w++) {
+                    builder.addAll(parts.get(w).get());
+                }
+            } finally {
+                pool.shutdownNow(); // Also when a record file fails, so the other threads do not keep the program alive
+            }
+            int entries = builder.write(bookFile, minGames);
+            System.out.println("Built " + entries + " entries from " + builder.getGames() + " games");
+        }
+        System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+}
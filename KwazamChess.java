@@ -1,33 +1,30 @@
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.stream.IntStream;
-import javax.swing.JOptionPane;
 
 /**
  * Represents the Kwazam Chess game.
  * Manages the game state, player turns, piece movements, and file operations for saving/loading the game.
+ * The rules and the result come from a KwazamGame; this class keeps the board's squares and
+ * pieces in step with it for the window, and asks the user nothing itself.
  * @author Tang Wei Xiong
  */
 public class KwazamChess {
     public KwazamChessBoard chessboard;
+    private final KwazamGame game = new KwazamGame(new KwazamPosition()); // Rules, moves and result
     private Player player1;
     private Player player2;
     private final List<Player> playerList = new ArrayList<>();
 
-    private static ChessPiece queue = null;
-    private static BoardSquare temp = null;
-    private static boolean hasWinner;
-    private static boolean canMove = false;
-    private static String type;
-    private static int fromX, fromY, toX, toY, x, y;
-    private int playerTurnNum = 0;
+    private ChessPiece[] capturedHistory = new ChessPiece[64]; // Piece captured by each move, or null
+    private int historySize = 0;
 
     // Constructor
     public KwazamChess() {
-        chessboard = new KwazamChessBoard();
+        chessboard = new KwazamChessBoard(game.getPosition()); // The squares show the game's position
+        game.addListener(new SlotUpdater());
         player1 = new Player("B"); // Blue
         player2 = new Player("R"); // Red
         playerList.add(player2);
@@ -41,48 +38,39 @@ public class KwazamChess {
     // Restart the game
     public void restart() {
         chessboard.clear();
-        setupPieces();
+        clearHistory();
         setPlayerTurnNum(0);
-        hasWinner = false;
+        setupPieces();
     }
 
-    public void save() throws IOException {
-        // Prompt the user to name the save file
-        String fileName = JOptionPane.showInputDialog(null, "Enter a name for the save file:", "Save Game", JOptionPane.PLAIN_MESSAGE);
-        if (fileName == null || fileName.trim().isEmpty()) {
-            JOptionPane.showMessageDialog(null, "Save cancelled. No file name provided.");
-            return; // User cancelled or entered an empty name
-        }
-
-        // Ensure the file has a .txt extension
-        if (!fileName.toLowerCase().endsWith(".txt")) {
-            fileName += ".txt";
-        }
-
-        File saveFile = new File(fileName);
+    // Get the game being played, e.g. to listen for its result
+    public KwazamGame getGame() {
+        return game;
+    }
 
-        // Confirm before overwriting an existing file
-        if (saveFile.exists()) {
-            int overwrite = JOptionPane.showConfirmDialog(null,
-                "File already exists. Do you want to overwrite it?",
-                "Confirm Overwrite",
-                JOptionPane.YES_NO_OPTION);
-            if (overwrite != JOptionPane.YES_OPTION) {
-                return; // User chose not to overwrite
-            }
+    /**
+     * Saves the game state to a file: the binary save format, moves and all, if the
+     * file name ends in KwazamSaveFile.EXTENSION, else the text grid as an export.
+     *
+     * @param saveFile The file to write, replaced if it exists.
+     */
+    public void save(File saveFile) throws IOException {
+        if (KwazamSaveFile.isSaveFile(saveFile)) {
+            KwazamSaveFile.save(saveFile, game);
+            return;
         }
-
-        // Save the game state to the file
         try (PrintWriter printWriter = new PrintWriter(saveFile)) {
-            // Save board state in a grid format
+            // Save board state in a grid format, seen from the side of the player to move
+            String sideToMove = KwazamPosition.colorName(game.getSideToMove()); // Not the winner, once the game is over
+            boolean redView = sideToMove.equals("R");
             for (int i = 0; i < chessboard.getHeight(); i++) {
                 for (int j = 0; j < chessboard.getWidth(); j++) {
-                    ChessPiece piece = chessboard.getSlot(i, j).getPlacedPiece();
+                    ChessPiece piece = getViewSlot(i, j, redView).getPlacedPiece();
                     if (piece == null) {
                         printWriter.print("  ----  "); // Empty square
                     } else {
                         String pieceStr = piece.getOwner().getColor() + piece.getPieceName();
-                        if (piece.getPieceName().equals("Ram") && piece.hasReachedEnd()) {
+                        if (piece.getType() == PieceType.RAM && piece.hasReachedEnd()) {
                             pieceStr += " (End)";
                         }
                         printWriter.print(String.format("  %-6s", pieceStr)); // Align pieces in a grid
@@ -92,105 +80,72 @@ public class KwazamChess {
             }
 
             // Save game state
-            printWriter.println("\nPlayer to Move: " + getPlayerTurn().getColor());
+            printWriter.println("\nPlayer to Move: " + sideToMove);
             printWriter.println("Move Count: " + getPlayerTurnNum());
         }
-
-        JOptionPane.showMessageDialog(null, "Game saved successfully to " + fileName);
     }
 
     /**
-     * Loads a game state from a user-selected file.
+     * Loads a game state from a save file, binary or text by its name. The moves
+     * of a binary save file are played again, so they can be undone.
+     *
+     * @param saveFile The save file to read.
      */
-    public void load() throws FileNotFoundException {
-        // Get a list of all .txt files in the current directory
-        File[] saveFiles = new File(".").listFiles((dir, name) -> name.toLowerCase().endsWith(".txt"));
-
-        if (saveFiles == null || saveFiles.length == 0) {
-            JOptionPane.showMessageDialog(null, "No save files found.");
+    public void load(File saveFile) throws IOException {
+        if (KwazamSaveFile.isSaveFile(saveFile)) {
+            restore(KwazamSaveFile.load(saveFile));
             return;
         }
+        KwazamPosition position = new KwazamPosition();
+        new KwazamTextSaveParser().read(saveFile, position);
+        setUp(position);
+    }
 
-        // Create a drop-down menu for the user to choose a file
-        String[] fileNames = new String[saveFiles.length];
-        for (int i = 0; i < saveFiles.length; i++) {
-            fileNames[i] = saveFiles[i].getName();
-        }
-
-        String selectedFileName = (String) JOptionPane.showInputDialog(null,
-            "Choose a save file to load:",
-            "Load Game",
-            JOptionPane.PLAIN_MESSAGE,
-            null,
-            fileNames,
-            fileNames[0]);
-
-        if (selectedFileName == null) {
-            JOptionPane.showMessageDialog(null, "Load cancelled. No file selected.");
-            return; // User cancelled the selection
+    /**
+     * Sets the board up as another game stands, from its start position with
+     * its moves played again, so they can be undone.
+     *
+     * @param saved The game, e.g. loaded from a save file or recovered from a journal.
+     */
+    public void restore(KwazamGame saved) {
+        int[] moves = saved.getMoves();
+        KwazamPosition start = new KwazamPosition(saved.getPosition());
+        for (int i = moves.length - 1; i >= 0; i--) {
+            start.unmakeMove(moves[i]);
         }
-
-        File selectedFile = new File(selectedFileName);
-
-        // Load the game state from the selected file
-        try (Scanner scanner = new Scanner(selectedFile)) {
-            chessboard.clear();
-
-            // Load board state
-            for (int i = 0; i < chessboard.getHeight(); i++) {
-                String line = scanner.nextLine().trim(); // Read the entire line
-                String[] pieces = line.split("\\s{2,}"); // Split by two or more spaces
-
-                for (int j = 0; j < pieces.length; j++) {
-                    String pieceStr = pieces[j].trim();
-                    if (!pieceStr.equals("----")) { // Skip empty squares
-                        // Extract color (first character)
-                        String color = pieceStr.substring(0, 1);
-                        // Extract piece name and check for "(End)" for Ram
-                        boolean reachEnd = pieceStr.contains("(End)");
-                        String pieceName = reachEnd ? pieceStr.substring(1, pieceStr.indexOf(" ")) : pieceStr.substring(1);
-
-                        // Create piece with proper owner
-                        Player owner = color.equals("B") ? player1 : player2;
-                        ChessPiece piece = new ChessPiece(pieceName, owner, reachEnd);
-                        chessboard.addChessPiece(i, j, piece);
-                    }
-                }
-            }
-
-            // Load game state if available
-        while (scanner.hasNextLine()) {
-        String line = scanner.nextLine().trim();
-        if (line.startsWith("Player to Move:")) {
-            String playerColor = line.substring(line.lastIndexOf(" ") + 1);
-            setPlayerTurnNum(playerColor.equals("B") ? 0 : 1); // Set player turn
-
-            // Flip the board if it's Red's turn
-            if (playerColor.equals("R")) {
-                chessboard.reverse();
-            }
-        } else if (line.startsWith("Move Count:")) {
-            int moveCount = Integer.parseInt(line.substring(line.lastIndexOf(" ") + 1));
-            setPlayerTurnNum(moveCount); // Set move count
+        setUp(start);
+        for (int move : moves) {
+            game.submitMove(KwazamMove.from(move), KwazamMove.to(move));
         }
     }
 
-            hasWinner = false;
-            JOptionPane.showMessageDialog(null, "Game loaded successfully from " + selectedFileName);
-
-            // Update the message to reflect whose turn it is
-    String team = getPlayerTurn().getColor();
-
-            
+    // Set the board up as a position, with no moves made yet
+    private void setUp(KwazamPosition position) {
+        chessboard.clear();
+        clearHistory();
+        if (position.isPhaseFlipped()) {
+            chessboard.toggleXorTor(); // So the pieces are kept as the position keeps them
         }
+        for (int square = 0; square < KwazamPosition.SQUARES; square++) {
+            int piece = position.pieceAt(square);
+            if (piece != KwazamPosition.EMPTY) {
+                Player owner = KwazamPosition.colorOf(piece) == KwazamPosition.BLUE ? player1 : player2;
+                ChessPiece chessPiece = new ChessPiece(PieceType.fromCode(KwazamPosition.typeOf(piece)), owner,
+                        position.hasReachedEnd(square));
+                BoardSquare slot = chessboard.getSquareSlot(square);
+                chessboard.addChessPiece(slot.getRowPosition(), slot.getColPosition(), chessPiece);
+            }
+        }
+        setPlayerTurnNum(position.getMoveCount());
+        game.resetHistory();
     }
 
     // Setup pieces on the board
     public void setupPieces() {
-    System.out.println("Setting up pieces...");
-    String[] redArrangement = {"Tor", "Biz", "Sau", "Biz", "Xor"}; // Row 0 (Red team)
-    String[] blueArrangement = {"Xor", "Biz", "Sau", "Biz", "Tor"}; // Row 7 (Blue team)
-    String ramPiece = "Ram";
+    KwazamLog.log(KwazamLog.DEBUG, "Setting up pieces...");
+    PieceType[] redArrangement = {PieceType.TOR, PieceType.BIZ, PieceType.SAU, PieceType.BIZ, PieceType.XOR}; // Row 0 (Red team)
+    PieceType[] blueArrangement = {PieceType.XOR, PieceType.BIZ, PieceType.SAU, PieceType.BIZ, PieceType.TOR}; // Row 7 (Blue team)
+    PieceType ramPiece = PieceType.RAM;
     boolean ramHasReachedEnd = false;
     boolean otherPiecesReachedEnd = true;
 
@@ -199,23 +154,24 @@ public class KwazamChess {
             if (i == 0 && j < redArrangement.length) {
                 ChessPiece piece = new ChessPiece(redArrangement[j], player2, otherPiecesReachedEnd);
                 chessboard.addChessPiece(i, j, piece);
-                System.out.println("Placed " + piece.getPieceName() + " at (" + i + ", " + j + ")");
+                KwazamLog.log(KwazamLog.TRACE, "Placed %s at (%d, %d)", piece.getPieceName(), i, j);
             } else if (i == 1) {
                 ChessPiece piece = new ChessPiece(ramPiece, player2, ramHasReachedEnd);
                 chessboard.addChessPiece(i, j, piece);
-                System.out.println("Placed " + piece.getPieceName() + " at (" + i + ", " + j + ")");
+                KwazamLog.log(KwazamLog.TRACE, "Placed %s at (%d, %d)", piece.getPieceName(), i, j);
             } else if (i == 6) {
                 ChessPiece piece = new ChessPiece(ramPiece, player1, ramHasReachedEnd);
                 chessboard.addChessPiece(i, j, piece);
-                System.out.println("Placed " + piece.getPieceName() + " at (" + i + ", " + j + ")");
+                KwazamLog.log(KwazamLog.TRACE, "Placed %s at (%d, %d)", piece.getPieceName(), i, j);
             } else if (i == 7 && j < blueArrangement.length) {
                 ChessPiece piece = new ChessPiece(blueArrangement[j], player1, otherPiecesReachedEnd);
                 chessboard.addChessPiece(i, j, piece);
-                System.out.println("Placed " + piece.getPieceName() + " at (" + i + ", " + j + ")");
+                KwazamLog.log(KwazamLog.TRACE, "Placed %s at (%d, %d)", piece.getPieceName(), i, j);
             }
         });
     });
-    System.out.println("Pieces setup complete.");
+    game.resetHistory(); // A new game starts here
+    KwazamLog.log(KwazamLog.DEBUG, "Pieces setup complete.");
 }
 
     // Overloaded piece setup method for game loading purpose
@@ -231,315 +187,160 @@ public class KwazamChess {
 
     // Move a piece from a slot to another slot
     public boolean move(BoardSquare fromSquare, BoardSquare toSquare) {
-    System.out.println("Move method called");
-    System.out.println("Selected square: (" + fromSquare.getRowPosition() + ", " + fromSquare.getColPosition() + ")");
-    System.out.println("Destination square: (" + toSquare.getRowPosition() + ", " + toSquare.getColPosition() + ")");
+    if (KwazamLog.isEnabled(KwazamLog.TRACE)) { // Only name the squares if it will be logged
+        KwazamLog.log(KwazamLog.TRACE, "Move from %s to %s", KwazamMove.squareName(chessboard.toSquare(fromSquare)),
+                KwazamMove.squareName(chessboard.toSquare(toSquare)));
+    }
 
     ChessPiece piece = fromSquare.getPlacedPiece();
     if (piece == null || !piece.getOwner().equals(getPlayerTurn())) {
-        System.out.println("No piece or not player's turn");
+        KwazamLog.log(KwazamLog.DEBUG, "No piece or not player's turn");
         return false;
     }
 
-    int fromX = fromSquare.getRowPosition();
-    int fromY = fromSquare.getColPosition();
-    int toX = toSquare.getRowPosition();
-    int toY = toSquare.getColPosition();
-
-    boolean canMove = isValidMove(piece.getPieceName(), fromX, fromY, toX, toY, piece);
-    System.out.println("Move valid: " + canMove);
-
-    if (canMove) {
-        // Capture logic: If the destination square has an opponent's piece, remove it
-        ChessPiece destinationPiece = toSquare.getPlacedPiece();
-        if (destinationPiece != null && !destinationPiece.getOwner().equals(piece.getOwner())) {
-            System.out.println("Capturing opponent's piece: " + destinationPiece.getPieceName());
-            toSquare.setPlacedPiece(null); // Remove the opponent's piece
-
-            // Check if the captured piece is a "Sau"
-            if (destinationPiece.getPieceName().equals("Sau")) {
-                System.out.println("Sau captured! Game over.");
-                hasWinner = true; // Set the game to end
-                String winner = piece.getOwner().getColor(); // The capturing player wins
-                JOptionPane.showMessageDialog(null, "Team " + winner + " wins by capturing the Sau!");
-                return true; // End the game
-            }
-        }
+    int move = KwazamMoveGenerator.createMove(chessboard.getPosition(),
+            chessboard.toSquare(fromSquare), chessboard.toSquare(toSquare));
+    KwazamLog.log(KwazamLog.TRACE, "Move valid: %b", move != KwazamMove.NONE);
 
-        // Move the piece to the destination square
-        toSquare.setPlacedPiece(piece);
-        fromSquare.setPlacedPiece(null);
+    // The game moves the pieces on the squares too, and tells its listeners if the move ends it
+    if (game.submitMove(move)) {
+        if (KwazamLog.isEnabled(KwazamLog.DEBUG)) {
+            KwazamLog.log(KwazamLog.DEBUG, "Move successful: %s", KwazamMove.toString(move));
+        }
 
-        // Check if the Ram has reached the opposite end
-        if (piece.getPieceName().equals("Ram")) {
-            int oppositeEnd = chessboard.isFlipped() ? 0 : 7;
-            if (toX == (piece.getOwner().getColor().equals("B") ? 0 : oppositeEnd)) {
-                piece.setHasReachedEnd(true); // Set the "reached end" status
-                System.out.println("Ram reached end: hasReachedEnd = true");
-            }
+        // Xor/Tor state changes every two moves, as part of the move itself
+        if (KwazamMove.changesPhase(move)) {
+            KwazamLog.log(KwazamLog.DEBUG, "Xor/Tor state changed");
         }
 
-        playerTurnNum++; // Increment the turn counter
+        return true;
+    } else {
+        KwazamLog.log(KwazamLog.DEBUG, "Invalid move");
+        return false;
+    }
+}
 
-        // Check for a winner after the move
-        String winner = getWinner();
-        if (winner != null) {
-            System.out.println("Team " + winner + " wins!");
-            JOptionPane.showMessageDialog(null, "Team " + winner + " wins!");
-            return true; // End the game
+    // Moves the pieces on the squares along with every move made or taken back in the game,
+    // remembering each captured piece so it can be put back
+    private class SlotUpdater implements KwazamGame.Listener {
+        @Override
+        public void moveMade(KwazamGame game, int move) {
+            ChessPiece capturedPiece = chessboard.getSquareSlot(KwazamMove.to(move)).getPlacedPiece();
+            if (capturedPiece != null) {
+                KwazamLog.log(KwazamLog.DEBUG, "Capturing opponent's piece: %s", capturedPiece.getPieceName());
+            }
+            if (historySize == capturedHistory.length) {
+                capturedHistory = Arrays.copyOf(capturedHistory, historySize * 2);
+            }
+            capturedHistory[historySize++] = capturedPiece;
+            chessboard.moveSlots(move);
+            if (KwazamMove.reachesEnd(move)) {
+                KwazamLog.log(KwazamLog.DEBUG, "Ram reached end: hasReachedEnd = true");
+            }
         }
 
-        // Flip the board after a successful move
-        chessboard.reverse();
-        System.out.println("Move successful, board flipped");
+        @Override
+        public void moveUndone(KwazamGame game, int move) {
+            historySize--;
+            chessboard.unmoveSlots(move, capturedHistory[historySize]);
+            capturedHistory[historySize] = null;
+        }
 
-        // Change Xor/Tor state every two moves
-        if (playerTurnNum % 2 == 0) {
-            changeState();
-            System.out.println("Xor/Tor state changed");
+        @Override
+        public void gameOver(KwazamGame game, KwazamGame.Result result) {
+            KwazamLog.log(KwazamLog.INFO, "Game over: %s", result);
         }
+    }
 
-        return true;
-    } else {
-        System.out.println("Invalid move");
-        return false;
+    // Take back the last move. Returns false if there is no move to take back.
+    public boolean undo() {
+        return game.undo();
     }
-}
 
+    // Get the packed moves made since the game was set up or loaded, oldest first
+    public int[] getMoveHistory() {
+        return game.getMoves();
+    }
 
+    // Forget the moves made so far, e.g. after the board was set up again
+    private void clearHistory() {
+        Arrays.fill(capturedHistory, 0, historySize, null);
+        historySize = 0;
+    }
 
     // Check whether a piece can be moved in that turn
     public boolean isMovable(BoardSquare slot) {
     if (slot.getPlacedPiece() == null) {
-        System.out.println("No piece on the square");
+        KwazamLog.log(KwazamLog.TRACE, "No piece on the square");
         return false;
     }
 
     Player currentPlayer = getPlayerTurn();
     Player pieceOwner = slot.getPlacedPiece().getOwner();
 
-    System.out.println("Current player: " + currentPlayer.getColor());
-    System.out.println("Piece owner: " + pieceOwner.getColor());
+    KwazamLog.log(KwazamLog.TRACE, "Current player: %s, piece owner: %s", currentPlayer.getColor(), pieceOwner.getColor());
 
     return pieceOwner.equals(currentPlayer);
 }
 
     // Check whether a piece follows its movement rules
-    public boolean isValidMove(String type, int fromX, int fromY, int toX, int toY, ChessPiece queue) {
-    switch (type) {
-        case "Ram":
-            return isValidRamMove(fromX, fromY, toX, toY, queue);
-        case "Tor":
-            return isValidTorMove(fromX, fromY, toX, toY);
-        case "Xor":
-            return isValidXorMove(fromX, fromY, toX, toY);
-        case "Biz":
-            return isValidBizMove(toX - fromX, toY - fromY);
-        case "Sau":
-            return isValidSauMove(toX - fromX, toY - fromY);
-        default:
-            return false;
-    }
-}
-
-private boolean isValidRamMove(int fromX, int fromY, int toX, int toY, ChessPiece ram) {
-    System.out.println("Ram move check: from (" + fromX + ", " + fromY + ") to (" + toX + ", " + toY + ")");
-    System.out.println("Ram hasReachedEnd: " + ram.hasReachedEnd());
-
-    // Ram can only move in the same column
-    if (fromY != toY) {
-        System.out.println("Invalid move: Not in the same column");
-        return false;
-    }
-
-    // Calculate the direction of movement
-    int deltaX = toX - fromX;
-
-    // Check if the destination is within the board bounds
+    public boolean isValidMove(PieceType type, int fromX, int fromY, int toX, int toY, ChessPiece queue) {
     if (toX < 0 || toX >= chessboard.getHeight() || toY < 0 || toY >= chessboard.getWidth()) {
-        System.out.println("Invalid move: Out of bounds");
-        return false;
-    }
-
-    // Check if the destination square is occupied by a piece of the same color
-    ChessPiece destinationPiece = chessboard.getSlot(toX, toY).getPlacedPiece();
-    if (destinationPiece != null && destinationPiece.getOwner().equals(ram.getOwner())) {
-        System.out.println("Invalid move: Cannot capture a piece of the same color");
-        return false; // Cannot capture a piece of the same color
-    }
-
-    // Determine the opposite end based on the board's flipped state and the Ram's owner
-    int oppositeEnd;
-    if (chessboard.isFlipped()) {
-        oppositeEnd = ram.getOwner().getColor().equals("B") ? 7 : 0; // Flipped board
-    } else {
-        oppositeEnd = ram.getOwner().getColor().equals("B") ? 0 : 7; // Normal board
-    }
-
-    // Determine the direction of movement based on whether the Ram has reached the end
-    if (ram.hasReachedEnd()) {
-        // Ram is moving backward (toward its own side)
-        if (deltaX == 1) {
-            // Prevent the Ram from moving back to its starting row (row 0 for Red, row 7 for Blue)
-            if (toX == (ram.getOwner().getColor().equals("B") ? 7 : 0)) {
-                System.out.println("Invalid move: Ram cannot move back to its starting row");
-                return false;
-            }
-            System.out.println("Valid backward move");
-            return true;
-        }
-        // Allow the Ram to move forward to the opponent's starting row to capture the Sau
-        else if (deltaX == -1 && toX == oppositeEnd) {
-            System.out.println("Valid forward move to capture Sau at the end");
-            return true;
-        }
-    } else {
-        // Ram is moving forward (toward the opponent's side)
-        if (deltaX == -1) {
-            // Check if the destination is the opposite end
-            if (toX == oppositeEnd) {
-                ram.setHasReachedEnd(true); // Set the "reached end" status
-                System.out.println("Ram reached end: hasReachedEnd = true");
-            }
-            System.out.println("Valid forward move");
-            return true;
-        }
-    }
-
-    // Invalid move
-    System.out.println("Invalid move: Direction or step size incorrect");
-    return false;
-}
-
-
-
-// Helper method to check if a slot is empty
-private boolean isSlotEmpty(int row, int col) {
-    if (row < 0 || row >= chessboard.getHeight() || col < 0 || col >= chessboard.getWidth()) {
-        return false; // Slot is out of bounds
-    }
-    return chessboard.getSlot(row, col).getPlacedPiece() == null;
-}
-
-private boolean isValidTorMove(int fromX, int fromY, int toX, int toY) {
-    int deltaX = toX - fromX;
-    int deltaY = toY - fromY;
-
-    // Tor can move any distance orthogonally (same row or same column)
-    if (deltaX == 0 && deltaY != 0) {
-        // Moving along the same row
-        int step = deltaY > 0 ? 1 : -1;
-        for (int y = fromY + step; y != toY; y += step) {
-            if (!isSlotEmpty(fromX, y)) {
-                return false; // Path is blocked
-            }
-        }
-    } else if (deltaY == 0 && deltaX != 0) {
-        // Moving along the same column
-        int step = deltaX > 0 ? 1 : -1;
-        for (int x = fromX + step; x != toX; x += step) {
-            if (!isSlotEmpty(x, fromY)) {
-                return false; // Path is blocked
-            }
-        }
-    } else {
-        return false; // Not a valid orthogonal move
-    }
-
-    // Check if the destination square has a piece of the same color
-    ChessPiece destinationPiece = chessboard.getSlot(toX, toY).getPlacedPiece();
-    if (destinationPiece != null && destinationPiece.getOwner().equals(chessboard.getSlot(fromX, fromY).getPlacedPiece().getOwner())) {
-        return false; // Cannot capture a piece of the same color
+        return false; // Destination is out of bounds
     }
-
-    return true; // Valid move
+    KwazamPosition position = chessboard.getPosition();
+    int from = chessboard.toSquare(fromX, fromY);
+    int to = chessboard.toSquare(toX, toY);
+    int color = KwazamPosition.colorOf(queue.getOwner().getColor());
+    int piece = KwazamPosition.piece(color, type.code());
+
+    // Look the destination up in the piece's precomputed attack set
+    long targets = KwazamMoveGenerator.attacks(piece, from, position.occupied(), position.hasReachedEnd(from))
+            & ~position.occupancy(color);
+    return (targets & KwazamPosition.bit(to)) != 0;
 }
 
-    private boolean isValidXorMove(int fromX, int fromY, int toX, int toY) {
-    int deltaX = toX - fromX;
-    int deltaY = toY - fromY;
-
-    // Xor can move any distance diagonally
-    if (Math.abs(deltaX) == Math.abs(deltaY)) {
-        int stepX = deltaX > 0 ? 1 : -1;
-        int stepY = deltaY > 0 ? 1 : -1;
-        int x = fromX + stepX;
-        int y = fromY + stepY;
-        while (x != toX && y != toY) {
-            if (!isSlotEmpty(x, y)) {
-                return false; // Path is blocked
-            }
-            x += stepX;
-            y += stepY;
+    // Check whether a team has won the game: it is the only one with its Sau left
+    public String getWinner() {
+        switch (game.getResult()) {
+            case BLUE_WINS:
+                return KwazamPosition.colorName(KwazamPosition.BLUE);
+            case RED_WINS:
+                return KwazamPosition.colorName(KwazamPosition.RED);
+            default:
+                return null;
         }
-    } else {
-        return false; // Not a valid diagonal move
-    }
-
-    // Check if the destination square has a piece of the same color
-    ChessPiece destinationPiece = chessboard.getSlot(toX, toY).getPlacedPiece();
-    if (destinationPiece != null && destinationPiece.getOwner().equals(chessboard.getSlot(fromX, fromY).getPlacedPiece().getOwner())) {
-        return false; // Cannot capture a piece of the same color
-    }
-
-    return true; // Valid move
-}
-    private boolean isValidBizMove(int x, int y) {
-        return ((x == -2 || x == 2) && (y == 1 || y == -1)) || ((x == -1 || x == 1) && (y == -2 || y == 2));
-    }
-
-    private boolean isValidSauMove(int x, int y) {
-        return (x == -1 || x == 0 || x == 1) && (y == -1 || y == 0 || y == 1);
     }
 
-    // Change the Xor to Tor or vice versa after every 4 turns
-public void changeState() {
-    for (int i = 0; i < chessboard.getBoardSize(); i++) {
-        BoardSquare slot = chessboard.getSlot(i);
-        ChessPiece piece = slot.getPlacedPiece();
-        if (piece != null) {
-            if (piece.getPieceName().equals("Xor")) {
-                piece.setPieceName("Tor");
-            } else if (piece.getPieceName().equals("Tor")) {
-                piece.setPieceName("Xor");
-            }
-        }
-    }
-}
-
-    // Check whether a team has won the game
-    public String getWinner() {
-        long numOfSau = chessboard.getSlots().stream()
-                .map(BoardSquare::getPlacedPiece)
-                .filter(Objects::nonNull)
-                .filter(piece -> piece.getPieceName().equals("Sau"))
-                .count();
-        if (numOfSau == 1) {
-            hasWinner = true;
-            return chessboard.getSlots().stream()
-                    .map(BoardSquare::getPlacedPiece)
-                    .filter(Objects::nonNull)
-                    .filter(piece -> piece.getPieceName().equals("Sau"))
-                    .map(piece -> piece.getOwner().getColor())
-                    .findFirst().orElse(null);
-        }
-        hasWinner = false;
-        return null;
+    // Get the 64-bit Zobrist key identifying the current position
+    public long getPositionKey() {
+        return chessboard.getPosition().key();
     }
 
     // Get which player's turn it is
     public Player getPlayerTurn() {
+        int playerTurnNum = getPlayerTurnNum();
+        boolean hasWinner = getWinner() != null;
         return hasWinner ? playerList.get((playerTurnNum - 1) % 2) : playerList.get(playerTurnNum % 2);
     }
 
-    // playerTurnNum getter
+    // playerTurnNum getter, kept by the board's position
     public int getPlayerTurnNum() {
-        return playerTurnNum;
+        return chessboard.getPosition().getMoveCount();
     }
 
     // playerTurnNum setter
     public void setPlayerTurnNum(int playerTurnNum) {
-        this.playerTurnNum = playerTurnNum % 2 == 0 ? 1 : playerTurnNum; // Start with Blue (Player 1)
+        chessboard.getPosition().setMoveCount(playerTurnNum < 1 ? 1 : playerTurnNum); // Start with Blue (Player 1)
+    }
+
+    // Gets the slot at a row and column of a grid seen from Blue's side, or from Red's side
+    // with the board turned around.
+    private BoardSquare getViewSlot(int row, int col, boolean redView) {
+        if (redView) {
+            return chessboard.getSlot(chessboard.getHeight() - 1 - row, chessboard.getWidth() - 1 - col);
+        }
+        return chessboard.getSlot(row, col);
     }
 
     /**
@@ -558,18 +359,8 @@ public void changeState() {
             return false;
         }
 
-        int fromX = fromSquare.getRowPosition();
-        int fromY = fromSquare.getColPosition();
-        int toX = toSquare.getRowPosition();
-        int toY = toSquare.getColPosition();
-
-        // Check if destination has a piece of the same color
-        if (toSquare.getPlacedPiece() != null && 
-            toSquare.getPlacedPiece().getOwner().equals(piece.getOwner())) {
-            return false;
-        }
-
-        return isValidMove(piece.getPieceName(), fromX, fromY, toX, toY, piece);
+        long targets = KwazamMoveGenerator.targets(chessboard.getPosition(), chessboard.toSquare(fromSquare));
+        return (targets & KwazamPosition.bit(chessboard.toSquare(toSquare))) != 0;
     }
 
 
@@ -587,32 +378,33 @@ public void changeState() {
             return validMoves;
         }
 
-        for (int i = 0; i < chessboard.getHeight(); i++) {
-            for (int j = 0; j < chessboard.getWidth(); j++) {
-                BoardSquare targetSquare = chessboard.getSlot(i, j);
-                if (isValidMoveSquares(square, targetSquare)) {
-                    validMoves.add(targetSquare);
-                }
-            }
+        // All destinations come out of the move generator in one pass
+        long targets = KwazamMoveGenerator.targets(chessboard.getPosition(), chessboard.toSquare(square));
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            validMoves.add(chessboard.getSquareSlot(to));
         }
         
         return validMoves;
     }
 
     public void printBoardState() {
-    System.out.println("Current board state:");
+    if (!KwazamLog.isEnabled(KwazamLog.DEBUG)) {
+        return; // Don't build the picture of a board nobody will see
+    }
+    StringBuilder sb = new StringBuilder("Current board state:");
     for (int i = 0; i < chessboard.getHeight(); i++) {
+        sb.append(System.lineSeparator());
         for (int j = 0; j < chessboard.getWidth(); j++) {
             ChessPiece piece = chessboard.getSlot(i, j).getPlacedPiece();
             if (piece != null) {
-                System.out.print(piece.getPieceName() + " ");
+                sb.append(piece.getPieceName()).append(' ');
             } else {
-                System.out.print("null ");
+                sb.append("null ");
             }
         }
-        System.out.println();
     }
-
-    
+    KwazamLog.log(KwazamLog.DEBUG, sb.toString());
+}
 }
-}
\ No newline at end of file
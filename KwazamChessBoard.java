@@ -6,7 +6,8 @@ import java.util.List;
  * Represents a chessboard for the game.
  * The class stores information about the board's size, the chess slots,
  * and the piece icons for each team. It also provides methods to manipulate
- * the board, such as adding pieces, reversing the board, and getting slot details.
+ * the board, such as adding pieces, getting slot details, and flipping which
+ * way round the board is drawn without moving any piece.
  * @author Yeong Zi Yan
  */
 public class KwazamChessBoard {
@@ -17,15 +18,26 @@ public class KwazamChessBoard {
     private final ArrayList<String> blueIcons = new ArrayList<>();  // Icons for blue team
     private final ArrayList<String> redIcons = new ArrayList<>();   // Icons for red team
     private boolean isFlipped = false; // Track whether the board is flipped
+    private final KwazamPosition position; // Bitboard core behind the slots
 
     // Default constructor that sets the board size to 5x8 and initializes the chess slots.
     public KwazamChessBoard() {
-        this(5, 8);  // Set default size (5x8) and initialize slots
+        this(new KwazamPosition());
+    }
+
+    // Constructor for a 5x8 board whose slots are a view of a given position, e.g. a game's.
+    public KwazamChessBoard(KwazamPosition position) {
+        this(5, 8, position);
     }
 
     // Custom constructor that sets the board size to the specified width and height
     // and initializes the chess slots.
     public KwazamChessBoard(int width, int height) {
+        this(width, height, new KwazamPosition());
+    }
+
+    private KwazamChessBoard(int width, int height, KwazamPosition position) {
+        this.position = position;
         setBoardSize(width, height);
         addChessSlots();
     }
@@ -34,6 +46,7 @@ public class KwazamChessBoard {
     public void clear() {
         chessSlots.clear();
         addChessSlots();
+        position.clear();
     }
 
     // Sets the size of the chessboard.
@@ -54,7 +67,109 @@ public class KwazamChessBoard {
 
     // Adds a chess piece to a specific slot on the chessboard.
     public void addChessPiece(int x, int y, ChessPiece piece) {
+        piece.placeOn(position);
         chessSlots.get(x * width + y).assignPiece(piece);
+        position.put(toSquare(x, y), pieceCode(piece), piece.hasReachedEnd());
+    }
+
+    // Makes a packed move on the position and on the slots.
+    public void applyMove(int move) {
+        moveSlots(move);
+        position.makeMove(move); // Changes the Xor/Tor phase with it if the move does
+    }
+
+    // Moves the pieces on the slots for a packed move the position has made already.
+    public void moveSlots(int move) {
+        BoardSquare fromSquare = chessSlots.get(KwazamMove.from(move));
+        BoardSquare toSquare = chessSlots.get(KwazamMove.to(move));
+        ChessPiece piece = fromSquare.getPlacedPiece();
+        toSquare.setPlacedPiece(piece);
+        fromSquare.setPlacedPiece(null);
+        if (KwazamMove.reachesEnd(move)) {
+            piece.setHasReachedEnd(true);
+        }
+    }
+
+    // Takes back a packed move, putting the captured piece back on its slot.
+    public void undoMove(int move, ChessPiece capturedPiece) {
+        unmoveSlots(move, capturedPiece);
+        position.unmakeMove(move);
+    }
+
+    // Moves the pieces on the slots back for a packed move the position has taken back already.
+    public void unmoveSlots(int move, ChessPiece capturedPiece) {
+        BoardSquare fromSquare = chessSlots.get(KwazamMove.from(move));
+        BoardSquare toSquare = chessSlots.get(KwazamMove.to(move));
+        ChessPiece piece = toSquare.getPlacedPiece();
+        fromSquare.setPlacedPiece(piece);
+        toSquare.setPlacedPiece(capturedPiece);
+        if (KwazamMove.reachesEnd(move)) {
+            piece.setHasReachedEnd(false);
+        }
+    }
+
+    // Turns every Xor into a Tor and every Tor into a Xor. The pieces read their type through
+    // the position's phase, so only the phase bit changes.
+    public void toggleXorTor() {
+        position.togglePhase();
+    }
+
+    // Gets the bitboard position the slots are a view of.
+    public KwazamPosition getPosition() {
+        return position;
+    }
+
+    // Converts a (row, column) position to a square index of the position.
+    public int toSquare(int x, int y) {
+        return x * width + y;
+    }
+
+    // Converts a slot to a square index of the position.
+    public int toSquare(BoardSquare square) {
+        return toSquare(square.getRowPosition(), square.getColPosition());
+    }
+
+    // Gets the slot of a square index of the position.
+    public BoardSquare getSquareSlot(int square) {
+        return chessSlots.get(square);
+    }
+
+    // Gets the bitboard piece code of a chess piece.
+    public static int pieceCode(ChessPiece piece) {
+        return KwazamPosition.piece(KwazamPosition.colorOf(piece.getOwner().getColor()), piece.getType().code());
+    }
+
+    // Gets the number of pieces a colour has left.
+    public int getPieceCount(int color) {
+        return Long.bitCount(position.occupancy(color));
+    }
+
+    // Gets the slots holding a colour's pieces. They are read off the position's occupancy,
+    // so only the live pieces are visited, never the empty squares.
+    public List<BoardSquare> getPieceSlots(int color) {
+        List<BoardSquare> slots = new ArrayList<>(getPieceCount(color));
+        long squares = position.occupancy(color);
+        while (squares != 0) {
+            slots.add(chessSlots.get(Long.numberOfTrailingZeros(squares)));
+            squares &= squares - 1;
+        }
+        return slots;
+    }
+
+    // Gets the slots holding a colour's pieces of one type.
+    public List<BoardSquare> getPieceSlots(int color, PieceType type) {
+        List<BoardSquare> slots = new ArrayList<>();
+        long squares = position.bitboard(color, type.code());
+        while (squares != 0) {
+            slots.add(chessSlots.get(Long.numberOfTrailingZeros(squares)));
+            squares &= squares - 1;
+        }
+        return slots;
+    }
+
+    // Checks whether a colour still has its Sau, in constant time.
+    public boolean hasSau(int color) {
+        return position.bitboard(color, KwazamPosition.SAU) != 0;
     }
 
     // Adds a piece icon for the red team.
@@ -83,21 +198,16 @@ public BoardSquare getSlot(int x, int y) {
     return chessSlots.get(x * width + y);
 }
 
-    // Reverses the order of the slots on the chessboard. This is used to flip the chessboard
-    // after each move by a player, such as reversing the board when switching players.
+    // Turns the displayed board around. The slots keep their absolute coordinates;
+    // flipping only changes how the GUI draws the board and maps clicks back onto it.
     public void reverse() {
-    Collections.reverse(chessSlots); // Reverse the order of the slots
     isFlipped = !isFlipped; // Toggle the flipped state
+}
 
-    // Update the row and column positions of each square
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-            BoardSquare slot = chessSlots.get(i * width + j);
-            slot.setRowPosition(i);
-            slot.setColPosition(j);
-        }
+    // Maps a slot index to the index it is drawn at, and back, for the current flipped state.
+    public int toViewIndex(int index) {
+        return isFlipped ? getBoardSize() - 1 - index : index;
     }
-}
 
     // Gets the file path for the icon of a given piece.
     public String getIcon(String icon) {
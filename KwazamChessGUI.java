@@ -24,12 +24,11 @@ public class KwazamChessGUI extends JFrame {
     private static final JMenuItem saveMenu = new JMenuItem("📥 Save"); 
     private static final JMenuItem loadMenu = new JMenuItem("📂 Load"); 
     private static final JMenuItem resetMenu = new JMenuItem("🔄 Reset"); 
+    private static final JMenuItem computerMoveMenu = new JMenuItem("🤖 Computer Move");
     private static final JMenuItem helpMenu = new JMenuItem("❓ Help"); 
     private static final JFileChooser fileChooser = new JFileChooser(); 
 
     // Game-related components
-    static final KwazamChess game = new KwazamChess();
-    private static final KwazamChessBoard chessboard = game.chessboard;
     private static final JLabel message = new JLabel("Game start! Team Blue first.");
     private static final JLabel moveCounterLabel = new JLabel("Moves: 0"); // Move counter
 
@@ -202,6 +201,7 @@ public void setupMenu() {
     mainMenu.add(saveMenu);
     mainMenu.add(loadMenu);
     mainMenu.add(resetMenu);
+    mainMenu.add(computerMoveMenu);
     mainMenu.add(helpMenu);
     mainMenuBar.add(mainMenu);
 
@@ -339,6 +339,25 @@ public void setupMenu() {
         public void addLoadMenuListener(ActionListener e) {
             loadMenu.addActionListener(e);
         }
+
+        /**
+         * Adds an ActionListener to the computer move menu item.
+         *
+         * @param e the ActionListener to add.
+         */
+        public void addComputerMoveMenuListener(ActionListener e) {
+            computerMoveMenu.addActionListener(e);
+        }
+
+        /**
+         * Enables or disables the menu items that replace the game: load and reset.
+         *
+         * @param enabled Whether they can be chosen.
+         */
+        public void setGameMenusEnabled(boolean enabled) {
+            loadMenu.setEnabled(enabled);
+            resetMenu.setEnabled(enabled);
+        }
         
     /**
          * Displays the help image in a new window.
@@ -388,8 +407,10 @@ public void setupMenu() {
     
     /**
      * Sets up icons for the chessboard.
+     *
+     * @param chessboard The board of the game being shown.
      */
-    public void setupIcons() {
+    public void setupIcons(KwazamChessBoard chessboard) {
         chessboard.addRedIcon("Assets/TorR.png");
         chessboard.addRedIcon("Assets/XorR.png");
         chessboard.addRedIcon("Assets/BizR.png");
@@ -0,0 +1,735 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Game-tree search for computer play in Kwazam Chess.
+ * Negamax alpha-beta with principal variation search over the packed moves
+ * and bitboards of KwazamPosition, deepened one ply at a time until the depth
+ * or time budget runs out, with a transposition table carried between
+ * iterations and between searches.
+ *
+ * Scores are in hundredths of a Ram from the point of view of the side to
+ * move. A captured Sau ends the game, so it is scored as a win at once; the
+ * Ram turn-around and the Xor/Tor transformation are part of every packed
+ * move and are made and taken back with it.
+ *
+ * With more than one thread the search is a Lazy SMP one: helper threads
+ * search the same root at staggered depths and only share what they learn
+ * through the transposition table, which steers the main thread past work
+ * they have already done. The main thread's result is the one played.
+ *
+ * Given a KwazamTablebase, the search stops at every position the tables
+ * cover and scores it by its exact result. Given a KwazamBook, positions in
+ * the book are answered from it without a search.
+ */
+public class KwazamEngine {
+
+    public static final int MAX_PLY = 64;
+    public static final int INFINITY = 32000;
+    public static final int WIN = 30000; // Score of capturing the Sau now; wins further away score less
+    public static final int WIN_BOUND = WIN - MAX_PLY;
+    public static final int DRAW = 0;
+
+    // Margin for positional gains on top of the material a capture wins, in delta pruning.
+    private static final int DELTA_MARGIN = 150;
+    // Piece types from the most valuable down, for the delta pruning cap.
+    private static final int[] VICTIM_ORDER = {
+        KwazamPosition.TOR, KwazamPosition.XOR, KwazamPosition.BIZ, KwazamPosition.RAM
+    };
+
+    // Nodes searched between looks at the clock.
+    private static final int CHECK_INTERVAL = 2048;
+
+    private final TranspositionTable table;
+    private volatile boolean stopped;
+    private volatile long deadline;
+    private Consumer<SearchResult> infoListener;
+    private Searcher[] searchers; // The main thread's searcher first, then one per helper
+    private ExecutorService helpers;
+    private KwazamTablebase tablebase;
+    private KwazamBook book;
+    private final Random random = new Random(); // Picks among book moves
+
+    /**
+     * Creates a single-threaded engine.
+     *
+     * @param hashMegabytes Size of the transposition table in megabytes.
+     */
+    public KwazamEngine(int hashMegabytes) {
+        this(hashMegabytes, 1);
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param hashMegabytes Size of the transposition table in megabytes.
+     * @param threads The number of search threads, counting the calling thread.
+     */
+    public KwazamEngine(int hashMegabytes, int threads) {
+        this.table = new TranspositionTable(hashMegabytes);
+        setThreads(threads);
+    }
+
+    /**
+     * Sets how many threads search together. Must not be called during a search.
+     *
+     * @param threads The number of search threads, counting the calling thread.
+     */
+    public void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (helpers != null) {
+            helpers.shutdownNow();
+            helpers = null;
+        }
+        searchers = new Searcher[threads];
+        for (int i = 0; i < threads; i++) {
+            searchers[i] = new Searcher();
+        }
+        if (threads > 1) {
+            helpers = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "KwazamEngine helper");
+                thread.setDaemon(true); // Idle helpers must not keep the application alive
+                return thread;
+            });
+        }
+    }
+
+    public int getThreads() {
+        return searchers.length;
+    }
+
+    /**
+     * Sets a listener told about every completed iteration of a search, e.g. to
+     * show the engine's progress. It is called on the searching thread.
+     *
+     * @param infoListener The listener, or null for none.
+     */
+    public void setInfoListener(Consumer<SearchResult> infoListener) {
+        this.infoListener = infoListener;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Sets endgame tables for the search to look up positions with few
+     * pieces in, instead of searching them. Must not be called during a search.
+     *
+     * @param tablebase The tables, or null for none.
+     */
+    public void setTablebase(KwazamTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    public KwazamTablebase getTablebase() {
+        return tablebase;
+    }
+
+    /**
+     * Sets an opening book to play from, without searching, for as long as
+     * the game stays in it. Must not be called during a search.
+     *
+     * @param book The book, or null for none.
+     */
+    public void setBook(KwazamBook book) {
+        this.book = book;
+    }
+
+    public KwazamBook getBook() {
+        return book;
+    }
+
+    /**
+     * Asks a running search to stop as soon as possible. The search still
+     * returns the best move of its last completed iteration.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Forgets everything learned in earlier searches, e.g. before a new game.
+     */
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * Searches a position for the best move of the side to move.
+     *
+     * @param position The position. It is not modified.
+     * @param maxDepth The deepest iteration to search, in plies.
+     * @param maxMillis The time budget in milliseconds, or 0 for no limit.
+     * @return The result of the deepest completed iteration. Its move is
+     * KwazamMove.NONE only if the side to move has no moves.
+     */
+    public SearchResult search(KwazamPosition position, int maxDepth, long maxMillis) {
+        long start = System.nanoTime();
+        if (book != null) {
+            int move = book.pick(position, random);
+            if (move != KwazamMove.NONE) {
+                long elapsed = (System.nanoTime() - start) / 1_000_000L;
+                return new SearchResult(move, DRAW, 0, new long[searchers.length], elapsed, new int[] {move}, 0.0);
+            }
+        }
+        stopped = false;
+        deadline = maxMillis > 0 ? start + maxMillis * 1_000_000L : Long.MAX_VALUE;
+        table.newSearch();
+        maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+
+        for (Searcher searcher : searchers) {
+            searcher.reset(position);
+        }
+        Future<?>[] running = new Future<?>[searchers.length - 1];
+        for (int i = 1; i < searchers.length; i++) {
+            running[i - 1] = helpers.submit(helperTask(searchers[i], i, maxDepth));
+        }
+
+        Searcher searcher = searchers[0];
+        SearchResult result = new SearchResult(firstMove(position), DRAW, 0, new long[searchers.length], 0, new int[0], 0.0);
+        try {
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                int score = searcher.search(depth, 0, -INFINITY, INFINITY);
+                if (stopped && depth > 1) {
+                    break; // The iteration did not finish; keep the last one that did
+                }
+                int[] pv = searcher.principalVariation();
+                long elapsed = (System.nanoTime() - start) / 1_000_000L;
+                result = new SearchResult(pv.length > 0 ? pv[0] : result.getMove(), score, depth, threadNodes(), elapsed, pv,
+                        firstMoveCutoffRate());
+                if (infoListener != null) {
+                    infoListener.accept(result);
+                }
+                if (Math.abs(score) >= WIN_BOUND || pv.length == 0) {
+                    break; // The game is decided, or there is nothing to play
+                }
+                // Another iteration takes several times as long as this one, so do not start one that cannot finish
+                if (maxMillis > 0 && elapsed * 2 > maxMillis) {
+                    break;
+                }
+            }
+        } finally {
+            // The main thread has its answer; call the helpers off and wait until they let go of the table
+            stopped = true;
+            boolean interrupted = false;
+            for (Future<?> helper : running) {
+                while (true) {
+                    try {
+                        helper.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true; // Still wait: the helper may be using the table
+                    } catch (ExecutionException e) {
+                        KwazamLog.log(KwazamLog.ERROR, "A search helper failed", e.getCause());
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        return new SearchResult(result.getMove(), result.getScore(), result.getDepth(), threadNodes(), elapsed,
+                result.principalVariation, firstMoveCutoffRate());
+    }
+
+    // A helper deepens along with the main thread, odd helpers one ply ahead, until it is called off.
+    private Runnable helperTask(Searcher searcher, int id, int maxDepth) {
+        return () -> {
+            for (int depth = 1 + (id & 1); depth <= maxDepth && !stopped; depth++) {
+                searcher.search(depth, 0, -INFINITY, INFINITY);
+            }
+        };
+    }
+
+    // The share of beta cut-offs, over all threads, that came from the first move searched.
+    private double firstMoveCutoffRate() {
+        long cutoffs = 0;
+        long firstMoveCutoffs = 0;
+        for (Searcher searcher : searchers) {
+            cutoffs += searcher.cutoffs;
+            firstMoveCutoffs += searcher.firstMoveCutoffs;
+        }
+        return cutoffs == 0 ? 0.0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    // The nodes searched so far by each thread, main thread first.
+    private long[] threadNodes() {
+        long[] nodes = new long[searchers.length];
+        for (int i = 0; i < searchers.length; i++) {
+            nodes[i] = searchers[i].nodes;
+        }
+        return nodes;
+    }
+
+    // Any move of the side to move, played if not even one iteration completes.
+    private static int firstMove(KwazamPosition position) {
+        int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+        return KwazamMoveGenerator.generate(position, moves) > 0 ? moves[0] : KwazamMove.NONE;
+    }
+
+    // Win scores are stored relative to the node, not the root, so they stay right wherever the position recurs.
+    private static int toTable(int score, int ply) {
+        return score >= WIN_BOUND ? score + ply : score <= -WIN_BOUND ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score >= WIN_BOUND ? score - ply : score <= -WIN_BOUND ? score + ply : score;
+    }
+
+    // A tablebase result in plies as a score at a ply, scored like a win or loss found by the search.
+    private static int tablebaseScore(int result, int ply) {
+        return result > 0 ? WIN - ply - result : result < 0 ? -WIN + ply - result : DRAW;
+    }
+
+    /**
+     * The state of one search: its own copy of the position and the move
+     * buffers for every ply, so that nothing is allocated while it runs.
+     */
+    private class Searcher {
+        private final KwazamPosition position = new KwazamPosition();
+        private final KwazamMovePicker[] pickers = new KwazamMovePicker[MAX_PLY];
+        private final KwazamHistory history = new KwazamHistory();
+        private final int[][] quietsTried = new int[MAX_PLY][KwazamMoveGenerator.MAX_MOVES];
+        private final int[] line = new int[MAX_PLY + 1]; // The move made at each ply of the current line
+        private final long[] keys = new long[MAX_PLY + 1]; // Position keys along the current line
+        private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+        private final int[] pvLength = new int[MAX_PLY + 1];
+        private long nodes; // Read by the main thread for reports, so counts from helpers may lag
+        private long cutoffs;
+        private long firstMoveCutoffs;
+
+        Searcher() {
+            for (int ply = 0; ply < MAX_PLY; ply++) {
+                pickers[ply] = new KwazamMovePicker();
+            }
+        }
+
+        // Starts a new search from a copy of the position.
+        void reset(KwazamPosition root) {
+            position.copyFrom(root);
+            nodes = 0;
+            cutoffs = 0;
+            firstMoveCutoffs = 0;
+            pvLength[0] = 0;
+            history.age();
+        }
+
+        int[] principalVariation() {
+            return java.util.Arrays.copyOf(pv[0], pvLength[0]);
+        }
+
+        int search(int depth, int ply, int alpha, int beta) {
+            pvLength[ply] = ply;
+            if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                stopped = true;
+            }
+            if (stopped && ply > 0) {
+                return DRAW;
+            }
+
+            int side = position.sideToMove();
+            if (position.bitboard(side, KwazamPosition.SAU) == 0) {
+                return -WIN + ply; // The opponent captured our Sau on the last move
+            }
+            keys[ply] = position.key();
+            if (ply > 0 && isRepetition(ply)) {
+                return DRAW;
+            }
+            if (ply > 0 && tablebase != null && Long.bitCount(position.occupied()) <= tablebase.getMaxPieces()) {
+                int result = tablebase.probe(position);
+                if (result != KwazamTablebase.NOT_FOUND) {
+                    return tablebaseScore(result, ply);
+                }
+            }
+            if (depth <= 0 || ply >= MAX_PLY - 1) {
+                return quiesce(ply, alpha, beta);
+            }
+
+            long entry = table.probe(keys[ply]);
+            int hashMove = KwazamMove.NONE;
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.BOUND_EXACT
+                            || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                            || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+
+            KwazamMovePicker picker = pickers[ply];
+            int previousMove = ply > 0 ? line[ply - 1] : KwazamMove.NONE;
+            picker.init(position, hashMove, ply, previousMove, history);
+
+            int originalAlpha = alpha;
+            int bestScore = -INFINITY;
+            int bestMove = KwazamMove.NONE;
+            int quietCount = 0;
+            int move;
+            for (int i = 0; (move = picker.next()) != KwazamMove.NONE; i++) {
+                if (KwazamPosition.typeOf(KwazamMove.captured(move)) == KwazamPosition.SAU) {
+                    // Capturing the Sau wins on the spot; nothing can score better
+                    bestScore = WIN - ply - 1;
+                    bestMove = move;
+                    endPv(ply, move);
+                    break;
+                }
+
+                line[ply] = move;
+                position.makeMove(move);
+                int score;
+                if (i == 0) {
+                    score = -search(depth - 1, ply + 1, -beta, -alpha);
+                } else {
+                    // Prove the move is no better than the best so far with a null window, and search it fully only if it is
+                    score = -search(depth - 1, ply + 1, -alpha - 1, -alpha);
+                    if (score > alpha && score < beta) {
+                        score = -search(depth - 1, ply + 1, -beta, -alpha);
+                    }
+                }
+                position.unmakeMove(move);
+                if (stopped) {
+                    return DRAW;
+                }
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                    if (score > alpha) {
+                        alpha = score;
+                        updatePv(ply, move);
+                        if (alpha >= beta) {
+                            cutoffs++;
+                            if (i == 0) {
+                                firstMoveCutoffs++;
+                            }
+                            if (!KwazamMove.isCapture(move)) {
+                                history.update(ply, previousMove, move, quietsTried[ply], quietCount, depth);
+                            }
+                            break;
+                        }
+                    }
+                }
+                if (!KwazamMove.isCapture(move)) {
+                    quietsTried[ply][quietCount++] = move;
+                }
+            }
+            if (bestMove == KwazamMove.NONE) {
+                return DRAW; // Nothing can move, but the Sau still stands
+            }
+
+            int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                    : bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+            table.store(keys[ply], bestMove, toTable(bestScore, ply), depth, bound);
+            return bestScore;
+        }
+
+        /**
+         * Searches captures only, until the position is quiet, so that the
+         * static evaluation is never taken in the middle of an exchange.
+         * The side to move may always stand pat on the evaluation, unless its
+         * Sau is attacked, when every move is searched instead. Captures that
+         * lose material by static exchange evaluation are skipped, and so are
+         * captures that could not lift the score up to alpha even if the
+         * captured piece came for free (delta pruning).
+         */
+        int quiesce(int ply, int alpha, int beta) {
+            pvLength[ply] = ply;
+            if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                stopped = true;
+            }
+            if (stopped) {
+                return DRAW;
+            }
+            int side = position.sideToMove();
+            long sau = position.bitboard(side, KwazamPosition.SAU);
+            if (sau == 0) {
+                return -WIN + ply;
+            }
+            int standPat = KwazamEvaluation.evaluate(position);
+            if (ply >= MAX_PLY - 1) {
+                return standPat;
+            }
+            long threats = KwazamMoveGenerator.attackersTo(position, Long.numberOfTrailingZeros(sau), position.occupied())
+                    & position.occupancy(1 - side);
+            boolean inDanger = threats != 0;
+
+            int bestScore = -INFINITY;
+            if (!inDanger) {
+                if (standPat >= beta) {
+                    return standPat;
+                }
+                // Even winning the most valuable piece could not reach alpha
+                if (standPat + bestVictim(1 - side) + DELTA_MARGIN <= alpha) {
+                    return standPat;
+                }
+                bestScore = standPat;
+                alpha = Math.max(alpha, standPat);
+            }
+
+            KwazamMovePicker picker = pickers[ply];
+            if (inDanger) {
+                picker.init(position, KwazamMove.NONE, ply, ply > 0 ? line[ply - 1] : KwazamMove.NONE, history);
+            } else {
+                picker.initCaptures(position);
+            }
+            int move;
+            while ((move = picker.next()) != KwazamMove.NONE) {
+                int victim = KwazamPosition.typeOf(KwazamMove.captured(move));
+                if (victim == KwazamPosition.SAU) {
+                    endPv(ply, move);
+                    return WIN - ply - 1;
+                }
+                if (!inDanger && standPat + KwazamEvaluation.PIECE_VALUES[victim] + DELTA_MARGIN <= alpha) {
+                    continue; // Delta pruning: this capture cannot bring the score back to alpha
+                }
+                line[ply] = move;
+                position.makeMove(move);
+                int score = -quiesce(ply + 1, -beta, -alpha);
+                position.unmakeMove(move);
+                if (stopped) {
+                    return DRAW;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    if (score > alpha) {
+                        alpha = score;
+                        updatePv(ply, move);
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+            if (bestScore == -INFINITY) {
+                return DRAW; // Nothing can move at all, but the Sau still stands
+            }
+            return bestScore;
+        }
+
+        // The value of the most valuable piece a colour has left, apart from the Sau.
+        private int bestVictim(int color) {
+            for (int type : VICTIM_ORDER) {
+                if (position.bitboard(color, type) != 0) {
+                    return KwazamEvaluation.PIECE_VALUES[type];
+                }
+            }
+            return 0;
+        }
+
+        // Whether the position at this ply already occurred earlier on the line with the same side to move.
+        private boolean isRepetition(int ply) {
+            for (int earlier = ply - 2; earlier >= 0; earlier -= 2) {
+                if (keys[earlier] == keys[ply]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void updatePv(int ply, int move) {
+            pv[ply][ply] = move;
+            System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+            pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+        }
+
+        // Sets the line from this ply to a move that ends the game, with no child searched behind it
+        private void endPv(int ply, int move) {
+            pv[ply][ply] = move;
+            pvLength[ply] = ply + 1;
+        }
+    }
+
+    /**
+     * The outcome of a search: the move to play, its score and how it was found.
+     */
+    public static class SearchResult {
+        private final int move;
+        private final int score;
+        private final int depth;
+        private final long[] threadNodes;
+        private final long timeMillis;
+        private final int[] principalVariation;
+        private final double firstMoveCutoffRate;
+
+        SearchResult(int move, int score, int depth, long[] threadNodes, long timeMillis, int[] principalVariation,
+                     double firstMoveCutoffRate) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.threadNodes = threadNodes;
+            this.timeMillis = timeMillis;
+            this.principalVariation = principalVariation;
+            this.firstMoveCutoffRate = firstMoveCutoffRate;
+        }
+
+        public int getMove() {
+            return move;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the nodes searched by all threads together.
+         */
+        public long getNodes() {
+            long nodes = 0;
+            for (long n : threadNodes) {
+                nodes += n;
+            }
+            return nodes;
+        }
+
+        /**
+         * Gets the nodes searched by each thread, the main thread first.
+         */
+        public long[] getThreadNodes() {
+            return threadNodes.clone();
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public int[] getPrincipalVariation() {
+            return principalVariation.clone();
+        }
+
+        public long getNodesPerSecond() {
+            return getNodes() * 1000 / Math.max(timeMillis, 1);
+        }
+
+        /**
+         * Gets the share of beta cut-offs caused by the first move searched,
+         * which shows how well the moves were ordered.
+         */
+        public double getFirstMoveCutoffRate() {
+            return firstMoveCutoffRate;
+        }
+
+        public long getNodesPerSecondPerThread() {
+            return getNodesPerSecond() / threadNodes.length;
+        }
+
+        /**
+         * Whether the score is a forced win or loss rather than an estimate.
+         */
+        public boolean isDecisive() {
+            return Math.abs(score) >= WIN_BOUND;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("depth ").append(depth).append(" score ");
+            if (isDecisive()) {
+                int plies = WIN - Math.abs(score);
+                sb.append(score > 0 ? "win in " : "loss in ").append(plies).append(plies == 1 ? " ply" : " plies");
+            } else {
+                sb.append(score);
+            }
+            sb.append(" nodes ").append(getNodes()).append(" time ").append(timeMillis).append(" ms nps ").append(getNodesPerSecond());
+            if (threadNodes.length > 1) {
+                sb.append(" (").append(getNodesPerSecondPerThread()).append(" per thread)");
+            }
+            sb.append(String.format(" cutoffs on first move %.1f%%", 100.0 * firstMoveCutoffRate));
+            sb.append(" pv");
+            for (int move : principalVariation) {
+                sb.append(' ').append(KwazamMove.toString(move));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Measures how much faster several threads reach a depth than one thread,
+     * each starting from an empty table.
+     *
+     * @param position The position to search.
+     * @param depth The depth to reach.
+     * @param threads The number of threads to compare with one.
+     * @param hashMegabytes The table size for both runs.
+     * @return The one-thread time divided by the many-thread time.
+     */
+    public static double measureSpeedup(KwazamPosition position, int depth, int threads, int hashMegabytes) {
+        KwazamEngine engine = new KwazamEngine(hashMegabytes, 1);
+        SearchResult single = engine.search(position, depth, 0);
+        System.out.println("1 thread:   " + single);
+        engine.clear();
+        engine.setThreads(threads);
+        SearchResult parallel = engine.search(position, depth, 0);
+        System.out.println(threads + " threads: " + parallel);
+        engine.setThreads(1);
+        return (double) Math.max(single.getTimeMillis(), 1) / Math.max(parallel.getTimeMillis(), 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String saveFile = null;
+        int depth = MAX_PLY - 1;
+        long millis = 1000;
+        int hash = 64;
+        int threads = 1;
+        boolean speedup = false;
+        String tablebaseDirectory = null;
+        String bookFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-depth")) {
+                depth = Integer.parseInt(args[++i]);
+                millis = 0;
+            } else if (args[i].equals("-time")) {
+                millis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-hash")) {
+                hash = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-speedup")) {
+                speedup = true;
+            } else if (args[i].equals("-tablebase")) {
+                tablebaseDirectory = args[++i];
+            } else if (args[i].equals("-book")) {
+                bookFile = args[++i];
+            } else {
+                saveFile = args[i];
+            }
+        }
+
+        KwazamPosition position = saveFile == null
+                ? KwazamPerft.startPosition() : KwazamPerft.loadPosition(new File(saveFile));
+        System.out.println(position);
+        if (speedup) {
+            int target = depth < MAX_PLY - 1 ? depth : 10;
+            System.out.printf("Speedup to depth %d: %.2fx%n", target, measureSpeedup(position, target, threads, hash));
+            return;
+        }
+        KwazamEngine engine = new KwazamEngine(hash, threads);
+        engine.setInfoListener(System.out::println);
+        if (tablebaseDirectory != null) {
+            engine.setTablebase(new KwazamTablebase(new File(tablebaseDirectory)));
+        }
+        if (bookFile != null) {
+            engine.setBook(new KwazamBook(new File(bookFile)));
+        }
+        SearchResult result = engine.search(position, depth, millis);
+        System.out.println("Best move: " + KwazamMove.toString(result.getMove()));
+        System.out.println("Nodes per thread: " + java.util.Arrays.toString(result.getThreadNodes()));
+        System.out.println(engine.getTable());
+    }
+}
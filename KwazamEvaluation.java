@@ -0,0 +1,230 @@
+/**
+ * Static evaluation of Kwazam Chess positions for the search.
+ *
+ * Most of the score is material plus a piece-square value for every piece,
+ * which KwazamPosition keeps up to date in make and unmake exactly as it
+ * keeps its Zobrist key: one running total for each reading of the Xor/Tor
+ * phase, so the transformation of every Xor and Tor at once costs nothing.
+ * Rams are valued by how far they have advanced and, once turned around, by
+ * an extra table for their new direction. Only the Sau shelter is worked out
+ * at the leaf, from a couple of bitboard operations.
+ *
+ * Tables are written from Blue's side, with row 0 the far row Blue's Rams
+ * head for, and turned around for Red.
+ *
+ * Static exchange evaluation (SEE) works out what a capture wins or loses
+ * once both sides have made every worthwhile recapture on its square.
+ */
+public final class KwazamEvaluation {
+
+    // Material values, indexed by piece type. The Sau has none, as losing it ends the game.
+    public static final int[] PIECE_VALUES = {0, 100, 450, 450, 320, 0};
+
+    // Piece values in exchanges. Losing the Sau loses the game, so it outweighs everything else.
+    private static final int[] SEE_VALUES = {0, 100, 450, 450, 320, 20000};
+    // Piece types in the order they should be used to recapture, cheapest first.
+    private static final int[] RECAPTURE_ORDER = {
+        KwazamPosition.RAM, KwazamPosition.BIZ, KwazamPosition.TOR, KwazamPosition.XOR, KwazamPosition.SAU
+    };
+
+    private static final int SAU_SHELTER = 12; // Per own piece next to the Sau
+    private static final int TEMPO = 10;       // For being the side to move
+
+    // Piece-square tables for Blue, by piece type, without material.
+    private static final int[][] BLUE_TABLES = {
+        {},
+        { // Ram: worth more the closer it gets to turning around
+            40, 40, 40, 40, 40,
+            30, 32, 34, 32, 30,
+            24, 26, 28, 26, 24,
+            18, 20, 22, 20, 18,
+            12, 14, 16, 14, 12,
+             6,  8, 10,  8,  6,
+             0,  0,  0,  0,  0,
+             0,  0,  0,  0,  0,
+        },
+        { // Tor: open files and the middle rows
+             0,  4,  6,  4,  0,
+             4,  8, 10,  8,  4,
+             4,  8, 10,  8,  4,
+             6, 10, 12, 10,  6,
+             6, 10, 12, 10,  6,
+             4,  8, 10,  8,  4,
+             0,  4,  6,  4,  0,
+            -4,  0,  2,  0, -4,
+        },
+        { // Xor: long diagonals through the centre
+            -8, -4,  0, -4, -8,
+            -4,  4,  6,  4, -4,
+             0,  6, 12,  6,  0,
+             2,  8, 14,  8,  2,
+             2,  8, 14,  8,  2,
+             0,  6, 12,  6,  0,
+            -4,  4,  6,  4, -4,
+            -8, -4,  0, -4, -8,
+        },
+        { // Biz: jumps are scarce near the edges of a five-wide board
+           -20,-10, -6,-10,-20,
+           -10,  4,  8,  4,-10,
+            -4, 10, 16, 10, -4,
+            -2, 12, 18, 12, -2,
+            -2, 12, 18, 12, -2,
+            -4, 10, 14, 10, -4,
+           -10,  2,  6,  2,-10,
+           -20,-12, -8,-12,-20,
+        },
+        { // Sau: safest at home behind its own pieces
+           -60,-60,-60,-60,-60,
+           -50,-50,-50,-50,-50,
+           -40,-40,-40,-40,-40,
+           -30,-30,-30,-30,-30,
+           -20,-20,-20,-20,-20,
+           -10,-10,-10,-10,-10,
+             0,  4,  4,  4,  0,
+             4, 10, 12, 10,  4,
+        },
+    };
+
+    // A Ram that has turned around heads home again and can only move forward onto the far
+    // row, so its advancement value is replaced by this.
+    private static final int[] BLUE_RAM_END = {
+        50, 50, 50, 50, 50,
+        45, 46, 48, 46, 45,
+        40, 42, 44, 42, 40,
+        36, 38, 40, 38, 36,
+        32, 34, 36, 34, 32,
+        28, 30, 32, 30, 28,
+        24, 26, 28, 26, 24,
+         0,  0,  0,  0,  0,
+    };
+
+    // Material plus piece-square value of every piece code on every square, positive for Blue.
+    static final int[][] PIECE_SQUARE = new int[16][KwazamPosition.SQUARES];
+    // What turning around adds to a Ram of each colour on every square, positive for Blue.
+    static final int[][] RAM_END = new int[2][KwazamPosition.SQUARES];
+
+    static {
+        for (int type = KwazamPosition.RAM; type <= KwazamPosition.SAU; type++) {
+            for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+                int value = PIECE_VALUES[type] + BLUE_TABLES[type][sq];
+                PIECE_SQUARE[KwazamPosition.piece(KwazamPosition.BLUE, type)][sq] = value;
+                PIECE_SQUARE[KwazamPosition.piece(KwazamPosition.RED, type)][rotate(sq)] = -value;
+            }
+        }
+        for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+            int value = BLUE_RAM_END[sq] - BLUE_TABLES[KwazamPosition.RAM][sq];
+            RAM_END[KwazamPosition.BLUE][sq] = value;
+            RAM_END[KwazamPosition.RED][rotate(sq)] = -value;
+        }
+    }
+
+    private KwazamEvaluation() {
+    }
+
+    // The square seen from the other side of the board.
+    private static int rotate(int square) {
+        return KwazamPosition.SQUARES - 1 - square;
+    }
+
+    /**
+     * Scores a position for the side to move. Nothing but the Sau shelter is
+     * computed here, so it costs a handful of operations.
+     *
+     * @param position The position.
+     * @return The score in hundredths of a Ram.
+     */
+    public static int evaluate(KwazamPosition position) {
+        int score = position.pieceSquareScore()
+                + sauShelter(position, KwazamPosition.BLUE) - sauShelter(position, KwazamPosition.RED);
+        return (position.sideToMove() == KwazamPosition.BLUE ? score : -score) + TEMPO;
+    }
+
+    // A bonus for the own pieces standing next to a colour's Sau, which guard the squares around it.
+    private static int sauShelter(KwazamPosition position, int color) {
+        long sau = position.bitboard(color, KwazamPosition.SAU);
+        if (sau == 0) {
+            return 0;
+        }
+        long around = KwazamMoveGenerator.sauAttacks(Long.numberOfTrailingZeros(sau));
+        return SAU_SHELTER * Long.bitCount(around & position.occupancy(color));
+    }
+
+    /**
+     * Static exchange evaluation: checks whether a move wins at least a given
+     * amount of material on its destination square, assuming both sides keep
+     * recapturing there with their cheapest piece for as long as it pays.
+     * Tor and Xor attacks are traced through the pieces already exchanged off.
+     * The Xor/Tor transformation that may fall in the middle of a real
+     * exchange is not modelled.
+     *
+     * @param position The position before the move.
+     * @param move A packed move of the side to move.
+     * @param threshold The material the move must at least win; 0 asks whether it loses nothing.
+     * @return true if the exchange on the square is worth at least threshold.
+     */
+    public static boolean seeAtLeast(KwazamPosition position, int move, int threshold) {
+        int to = KwazamMove.to(move);
+        // What the side to move is up once the opponent stops, minus the threshold, if the opponent
+        // recaptures the piece on the square
+        int swap = SEE_VALUES[KwazamPosition.typeOf(KwazamMove.captured(move))] - threshold;
+        if (swap < 0) {
+            return false; // Not enough even if the piece is never taken back
+        }
+        swap = SEE_VALUES[KwazamPosition.typeOf(KwazamMove.piece(move))] - swap;
+        if (swap <= 0) {
+            return true; // Enough even if the piece is taken back for nothing
+        }
+
+        long occupied = position.occupied() & ~KwazamPosition.bit(KwazamMove.from(move)) & ~KwazamPosition.bit(to);
+        int side = KwazamPosition.colorOf(KwazamMove.piece(move));
+        boolean result = true;
+        while (true) {
+            side ^= 1;
+            long attackers = KwazamMoveGenerator.attackersTo(position, to, occupied);
+            long own = attackers & position.occupancy(side);
+            if (own == 0) {
+                break;
+            }
+            result = !result;
+
+            int type = KwazamPosition.EMPTY;
+            long attacker = 0L;
+            for (int candidate : RECAPTURE_ORDER) {
+                attacker = own & position.bitboard(side, candidate);
+                if (attacker != 0) {
+                    type = candidate;
+                    break;
+                }
+            }
+            if (type == KwazamPosition.SAU) {
+                // The Sau may only take last, when nothing can take it in turn
+                return (attackers & position.occupancy(side ^ 1)) != 0 ? !result : result;
+            }
+            swap = SEE_VALUES[type] - swap;
+            if (swap < (result ? 1 : 0)) {
+                break; // The side that just took is ahead however the exchange goes on
+            }
+            occupied &= ~Long.lowestOneBit(attacker);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the material and piece-square score of a position from scratch.
+     * The position keeps its own score up to date as it changes; this is for checking.
+     *
+     * @param position The position.
+     * @return The score from Blue's point of view, as returned by pieceSquareScore().
+     */
+    public static int computeScore(KwazamPosition position) {
+        int score = 0;
+        for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+            int piece = position.pieceAt(sq);
+            score += PIECE_SQUARE[piece][sq];
+            if (position.hasReachedEnd(sq)) {
+                score += RAM_END[KwazamPosition.colorOf(piece)][sq];
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One game of Kwazam Chess, without any user interface.
+ *
+ * A game keeps the position, the moves played and the result, and checks
+ * every move submitted to it against the rules. It uses nothing from AWT or
+ * Swing and asks nobody anything, so games can be run headless, many at a
+ * time, e.g. on a server or in self-play. The window (ChessApp through
+ * KwazamChess) is one client of it.
+ *
+ * Listeners hear about every move made or taken back, about the end of the
+ * game and about the board being set up again, on the thread that submitted the move. A game is not thread-safe;
+ * use each one from one thread at a time.
+ */
+public class KwazamGame {
+
+    /**
+     * How a game stands.
+     */
+    public enum Result {
+        IN_PROGRESS("*"),
+        BLUE_WINS("1-0"),
+        RED_WINS("0-1"),
+        DRAW("1/2-1/2");
+
+        private final String text;
+
+        Result(String text) {
+            this.text = text;
+        }
+
+        public boolean isOver() {
+            return this != IN_PROGRESS;
+        }
+
+        /**
+         * Gets the result as written at the end of a game record, e.g. "1-0".
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the result of a win for a colour.
+         *
+         * @param color KwazamPosition.BLUE or KwazamPosition.RED.
+         * @return BLUE_WINS or RED_WINS.
+         */
+        public static Result winFor(int color) {
+            return color == KwazamPosition.BLUE ? BLUE_WINS : RED_WINS;
+        }
+    }
+
+    /**
+     * Receives the events of a game. Every method does nothing unless overridden.
+     */
+    public interface Listener {
+        /**
+         * Called after a move has been made.
+         *
+         * @param game The game.
+         * @param move The packed move.
+         */
+        default void moveMade(KwazamGame game, int move) {
+        }
+
+        /**
+         * Called after a move has been taken back.
+         *
+         * @param game The game.
+         * @param move The packed move that was taken back.
+         */
+        default void moveUndone(KwazamGame game, int move) {
+        }
+
+        /**
+         * Called once when a move ends the game, after moveMade.
+         *
+         * @param game The game.
+         * @param result How it ended.
+         */
+        default void gameOver(KwazamGame game, Result result) {
+        }
+
+        /**
+         * Called after the position was set up again and the moves forgotten.
+         *
+         * @param game The game.
+         */
+        default void gameReset(KwazamGame game) {
+        }
+    }
+
+    private final KwazamPosition position;
+    private int[] moves = new int[64]; // Packed moves made so far
+    private int moveCount = 0;
+    private Result result = Result.IN_PROGRESS;
+    private final List<Listener> listeners = new ArrayList<>(2);
+
+    /**
+     * Starts a new game from the usual starting position.
+     */
+    public KwazamGame() {
+        this(startPosition());
+    }
+
+    /**
+     * Starts a game from a given position.
+     *
+     * @param start The position to start from; the game plays on a copy of it.
+     */
+    public KwazamGame(KwazamPosition start) {
+        position = new KwazamPosition(start);
+        result = judge();
+    }
+
+    /**
+     * Builds the starting position of a new game: Blue's pieces on ranks 1
+     * and 2, Red's on ranks 7 and 8, Blue to move.
+     *
+     * @return The starting position.
+     */
+    public static KwazamPosition startPosition() {
+        int[] backRow = {KwazamPosition.TOR, KwazamPosition.BIZ, KwazamPosition.SAU, KwazamPosition.BIZ, KwazamPosition.XOR};
+        KwazamPosition position = new KwazamPosition();
+        for (int col = 0; col < KwazamPosition.WIDTH; col++) {
+            position.put(KwazamPosition.square(0, col), KwazamPosition.piece(KwazamPosition.RED, backRow[col]), false);
+            position.put(KwazamPosition.square(1, col), KwazamPosition.piece(KwazamPosition.RED, KwazamPosition.RAM), false);
+            position.put(KwazamPosition.square(KwazamPosition.HEIGHT - 2, col),
+                    KwazamPosition.piece(KwazamPosition.BLUE, KwazamPosition.RAM), false);
+            position.put(KwazamPosition.square(KwazamPosition.HEIGHT - 1, col),
+                    KwazamPosition.piece(KwazamPosition.BLUE, backRow[KwazamPosition.WIDTH - 1 - col]), false);
+        }
+        return position;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Plays a move if it is legal and the game is not over.
+     *
+     * @param move The packed move, e.g. from KwazamMoveGenerator or an engine.
+     * @return Whether the move was played.
+     */
+    public boolean submitMove(int move) {
+        if (result.isOver() || !KwazamMoveGenerator.isLegal(position, move)) {
+            return false;
+        }
+        if (moveCount == moves.length) {
+            moves = Arrays.copyOf(moves, moveCount * 2);
+        }
+        moves[moveCount++] = move;
+        position.makeMove(move);
+        result = judge();
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).moveMade(this, move);
+        }
+        if (result.isOver()) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).gameOver(this, result);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Plays the move of the piece on one square to another.
+     *
+     * @param from The square the piece leaves.
+     * @param to The square the piece lands on.
+     * @return Whether the move was played.
+     */
+    public boolean submitMove(int from, int to) {
+        return submitMove(KwazamMoveGenerator.createMove(position, from, to));
+    }
+
+    /**
+     * Plays a move given in coordinate notation.
+     *
+     * @param text The move, e.g. "c2c3".
+     * @return Whether the move was played.
+     */
+    public boolean submitMove(String text) {
+        return submitMove(KwazamMoveGenerator.parseMove(position, text));
+    }
+
+    /**
+     * Takes back the last move, which also reopens a finished game.
+     *
+     * @return false if no move has been made.
+     */
+    public boolean undo() {
+        if (moveCount == 0) {
+            return false;
+        }
+        int move = moves[--moveCount];
+        position.unmakeMove(move);
+        result = judge();
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).moveUndone(this, move);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the moves made and works out the result again, after the
+     * position was set up again in place, e.g. by a board loading a save file.
+     */
+    void resetHistory() {
+        moveCount = 0;
+        result = judge();
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).gameReset(this);
+        }
+    }
+
+    /**
+     * Gets the position being played. It is live: it changes as moves are
+     * made, and must only be changed through the game. Copy it to keep it.
+     */
+    public KwazamPosition getPosition() {
+        return position;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public boolean isOver() {
+        return result.isOver();
+    }
+
+    /**
+     * Gets the colour to move, KwazamPosition.BLUE or KwazamPosition.RED.
+     */
+    public int getSideToMove() {
+        return position.sideToMove();
+    }
+
+    /**
+     * Gets the number of moves made since the game started, not counting
+     * the move count the start position may have had.
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Gets the packed moves made since the game started, oldest first.
+     */
+    public int[] getMoves() {
+        return Arrays.copyOf(moves, moveCount);
+    }
+
+    /**
+     * Gets the last move made, or KwazamMove.NONE if there is none.
+     */
+    public int getLastMove() {
+        return moveCount == 0 ? KwazamMove.NONE : moves[moveCount - 1];
+    }
+
+    /**
+     * Gets the legal moves of the side to move, none if the game is over.
+     *
+     * @return The packed moves.
+     */
+    public int[] getLegalMoves() {
+        if (result.isOver()) {
+            return new int[0];
+        }
+        int[] legal = new int[KwazamMoveGenerator.MAX_MOVES];
+        return Arrays.copyOf(legal, KwazamMoveGenerator.generate(position, legal));
+    }
+
+    /**
+     * Gets the squares the piece on a square may move to now.
+     *
+     * @param square The square.
+     * @return A bitboard of destination squares; empty if the square does not
+     * hold a piece of the side to move or the game is over.
+     */
+    public long getTargets(int square) {
+        int piece = position.pieceAt(square);
+        if (result.isOver() || piece == KwazamPosition.EMPTY
+                || KwazamPosition.colorOf(piece) != position.sideToMove()) {
+            return 0L;
+        }
+        return KwazamMoveGenerator.targets(position, square);
+    }
+
+    // A side whose Sau has been captured has lost. A side that cannot move draws, as the engine scores it.
+    private Result judge() {
+        boolean blueSau = position.bitboard(KwazamPosition.BLUE, KwazamPosition.SAU) != 0;
+        boolean redSau = position.bitboard(KwazamPosition.RED, KwazamPosition.SAU) != 0;
+        if (blueSau != redSau) {
+            return Result.winFor(blueSau ? KwazamPosition.BLUE : KwazamPosition.RED);
+        }
+        if (!blueSau) {
+            return Result.IN_PROGRESS; // No Sau on the board at all, e.g. a half set up position
+        }
+        long own = position.occupancy(position.sideToMove());
+        while (own != 0) {
+            if (KwazamMoveGenerator.targets(position, Long.numberOfTrailingZeros(own)) != 0) {
+                return Result.IN_PROGRESS;
+            }
+            own &= own - 1;
+        }
+        return Result.DRAW;
+    }
+}
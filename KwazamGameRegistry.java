@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The games a server is running, by id.
+ *
+ * The games are spread over shards by id, each with its own lock, so
+ * connections working on different games seldom wait for each other to find
+ * one. A game handed out must still be locked (synchronized on it) while it
+ * is used, since two players may send moves to it at once.
+ */
+public class KwazamGameRegistry {
+
+    private final List<Map<Long, KwazamGame>> shards;
+    private final int mask;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * Constructs an empty registry.
+     *
+     * @param shardCount The number of shards, rounded up to a power of two.
+     */
+    public KwazamGameRegistry(int shardCount) {
+        int size = 1;
+        while (size < shardCount) {
+            size <<= 1;
+        }
+        shards = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            shards.add(new HashMap<>());
+        }
+        mask = size - 1;
+    }
+
+    // Ids are handed out in turn, so consecutive games land on different shards
+    private Map<Long, KwazamGame> shard(long id) {
+        return shards.get((int) (id & mask));
+    }
+
+    /**
+     * Starts a new game from the usual starting position.
+     *
+     * @return The id of the game.
+     */
+    public long create() {
+        return add(new KwazamGame());
+    }
+
+    /**
+     * Adds a game.
+     *
+     * @param game The game.
+     * @return The id given to it.
+     */
+    public long add(KwazamGame game) {
+        long id = nextId.getAndIncrement();
+        Map<Long, KwazamGame> shard = shard(id);
+        synchronized (shard) {
+            shard.put(id, game);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a game under an id it had before, e.g. when a server picks its
+     * games up again after a restart. Ids handed out later are larger.
+     *
+     * @param id The id.
+     * @param game The game.
+     */
+    public void put(long id, KwazamGame game) {
+        nextId.accumulateAndGet(id + 1, Math::max);
+        Map<Long, KwazamGame> shard = shard(id);
+        synchronized (shard) {
+            shard.put(id, game);
+        }
+    }
+
+    /**
+     * Gets a game by its id.
+     *
+     * @param id The id.
+     * @return The game, or null if there is none with that id.
+     */
+    public KwazamGame get(long id) {
+        Map<Long, KwazamGame> shard = shard(id);
+        synchronized (shard) {
+            return shard.get(id);
+        }
+    }
+
+    /**
+     * Forgets a game.
+     *
+     * @param id The id.
+     * @return The game, or null if there was none with that id.
+     */
+    public KwazamGame remove(long id) {
+        Map<Long, KwazamGame> shard = shard(id);
+        synchronized (shard) {
+            return shard.remove(id);
+        }
+    }
+
+    /**
+     * Counts the games, locking one shard at a time.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Long, KwazamGame> shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+}
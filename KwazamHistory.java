@@ -0,0 +1,107 @@
+/**
+ * Move ordering memory of one search thread: killer moves, the history score
+ * of every piece on every destination, and the countermove that refuted each
+ * move of the opponent. Moves are matched on their from square, to square
+ * and moving piece, so a move found good in one position is recognised in
+ * its neighbours whatever it captures there.
+ *
+ * The tables live from one search to the next and are aged in between, so
+ * what was learned on the last move still helps without drowning out what
+ * the new search finds.
+ */
+public class KwazamHistory {
+
+    // History scores stay within plus or minus this.
+    public static final int MAX_HISTORY = 1 << 14;
+
+    private static final int KILLERS = 2;
+    private static final int MOVE_KEY_MASK = 0xFFFF; // From, to and moving piece of a packed move
+
+    private final int[][] killers = new int[KwazamEngine.MAX_PLY][KILLERS];
+    private final int[] history = new int[16 * KwazamPosition.SQUARES]; // Indexed by moving piece and destination
+    private final int[] counterMoves = new int[16 * KwazamPosition.SQUARES]; // Indexed by the opponent's last move
+
+    private static int index(int move) {
+        return KwazamMove.piece(move) * KwazamPosition.SQUARES + KwazamMove.to(move);
+    }
+
+    /**
+     * Whether two packed moves move the same piece between the same squares.
+     */
+    public static boolean sameMove(int move, int other) {
+        return (move & MOVE_KEY_MASK) == (other & MOVE_KEY_MASK);
+    }
+
+    public int killer(int ply, int slot) {
+        return killers[ply][slot];
+    }
+
+    public int history(int move) {
+        return history[index(move)];
+    }
+
+    /**
+     * Gets the move that last refuted a move of the opponent.
+     *
+     * @param previousMove The opponent's last move, or KwazamMove.NONE.
+     * @return The countermove, or KwazamMove.NONE.
+     */
+    public int counterMove(int previousMove) {
+        return previousMove == KwazamMove.NONE ? KwazamMove.NONE : counterMoves[index(previousMove)];
+    }
+
+    /**
+     * Learns from a quiet move that caused a beta cut-off: it becomes a killer
+     * at its ply and the countermove of the opponent's last move, its history
+     * rises, and the quiet moves tried before it without success fall.
+     *
+     * @param ply The ply of the cut-off.
+     * @param previousMove The opponent's last move, or KwazamMove.NONE.
+     * @param move The move that cut off.
+     * @param tried The quiet moves searched before it.
+     * @param triedCount The number of moves in tried.
+     * @param depth The remaining depth of the node.
+     */
+    public void update(int ply, int previousMove, int move, int[] tried, int triedCount, int depth) {
+        if (!sameMove(killers[ply][0], move)) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        if (previousMove != KwazamMove.NONE) {
+            counterMoves[index(previousMove)] = move;
+        }
+        int bonus = Math.min(depth * depth, 400);
+        adjust(move, bonus);
+        for (int i = 0; i < triedCount; i++) {
+            adjust(tried[i], -bonus);
+        }
+    }
+
+    // Moves a history score towards the bonus, more slowly the closer it already is to the limit.
+    private void adjust(int move, int bonus) {
+        int i = index(move);
+        history[i] += 32 * bonus - history[i] * Math.abs(bonus) / (MAX_HISTORY / 32);
+    }
+
+    /**
+     * Forgets the killers, which belong to the plies of the last search, and
+     * scales the history down before a new search.
+     */
+    public void age() {
+        for (int[] slots : killers) {
+            java.util.Arrays.fill(slots, KwazamMove.NONE);
+        }
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 4;
+        }
+    }
+
+    /**
+     * Forgets everything, e.g. before a new game.
+     */
+    public void clear() {
+        age();
+        java.util.Arrays.fill(history, 0);
+        java.util.Arrays.fill(counterMoves, KwazamMove.NONE);
+    }
+}
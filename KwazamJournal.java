@@ -0,0 +1,380 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of one game, so the game survives a crash.
+ *
+ * The journal listens to its game. Every move made or taken back goes into a
+ * buffer as a 3-byte record, and the buffer is written to the file and forced
+ * to the disk as the journal was told: after every move, after every so many
+ * moves, or every so many milliseconds from a timer thread that all journals
+ * share. Records still in the buffer are lost if the process dies.
+ *
+ * The file holds a snapshot of the game's position, in the format of
+ * KwazamSaveFile, with the records after it. Every so many records, and
+ * whenever the board is set up again, a new file with a fresh snapshot is
+ * written and moved over the old one, so recover() never plays more than
+ * that many records. A record cut short by a crash, and anything after it,
+ * is left out of the recovered game.
+ *
+ * A snapshot holds the position only, so a recovered game can take back the
+ * moves since the last snapshot and no further; taking back a move made
+ * before it takes a new snapshot. With the history option the snapshots
+ * carry every move since the game started instead, so all of them can be
+ * taken back, at the cost of a snapshot and a recovery that grow with the
+ * game.
+ */
+public class KwazamJournal implements KwazamGame.Listener, Closeable {
+
+    public static final String EXTENSION = ".kjn";
+    public static final String DEFAULT_OPTIONS = "moves=1,snapshot=64";
+
+    static final int MAGIC = 0x314E4A4B; // "KJN1" when read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 12; // Magic, version, three reserved bytes and the snapshot's length
+    static final int RECORD_BYTES = 3;
+    static final byte MOVE = 'M'; // Followed by the move's squares, packed as KwazamSaveFile.packSquares does
+    static final byte UNDO = 'U'; // Followed by the squares of the move taken back
+
+    // Forces the journals that sync on a timer
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KwazamJournal sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final KwazamGame game;
+    private final int syncMoves;
+    private final int snapshotMoves;
+    private final boolean history;
+    private final ScheduledFuture<?> syncTask;
+    private int sinceSnapshot = 0; // Records since the last snapshot; used by the game's thread only
+    private int movesAfterSnapshot = 0; // Moves of the game made after the snapshot; likewise
+
+    private final Object lock = new Object(); // Guards the fields below
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer snapshot; // A new file to write instead of the pending records, or null
+    private int unsynced = 0; // Records taken since the last force
+    private boolean dirty = false; // Written but not forced
+    private boolean failed = false; // A write failed; the next record takes a snapshot instead
+    private boolean closed = false;
+
+    /**
+     * Starts a journal of a game, replacing the file with a snapshot of the
+     * game as it stands.
+     *
+     * @param file The journal file.
+     * @param game The game, which is listened to from now on.
+     * @param syncMoves Force the records to the disk after this many moves: 1 after every move, 0 never for the count.
+     * @param syncMillis Force the records to the disk this often, or 0 never for the time.
+     * @param snapshotMoves Start the file again from a snapshot after this many records.
+     * @param history Whether snapshots keep every move since the start, so that all can be taken back after recovery.
+     * @throws IOException If the file cannot be written.
+     */
+    public KwazamJournal(File file, KwazamGame game, int syncMoves, long syncMillis, int snapshotMoves,
+                         boolean history) throws IOException {
+        this.file = file;
+        this.game = game;
+        this.syncMoves = syncMoves;
+        this.snapshotMoves = Math.max(1, snapshotMoves);
+        this.history = history;
+        snapshot = snapshotOf(game, history);
+        sync();
+        game.addListener(this);
+        syncTask = syncMillis > 0
+                ? timer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * Starts a journal of a game with options given as text, e.g.
+     * "moves=8,millis=200,snapshot=64,history=1". Options left out are 0,
+     * except snapshot, which is 64, and moves, which is 1 if millis is left
+     * out too, so that the records always reach the disk.
+     *
+     * @param file The journal file.
+     * @param game The game.
+     * @param options The options: moves and millis for when to force, snapshot for how often to start the
+     *                file again, history=1 to keep every move in the snapshots.
+     * @return The journal.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If an option is unknown.
+     */
+    public static KwazamJournal open(File file, KwazamGame game, String options) throws IOException {
+        int syncMoves = 0;
+        long syncMillis = 0;
+        int snapshotMoves = 64;
+        boolean history = false;
+        for (String option : options.split(",")) {
+            String[] pair = option.trim().split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Bad journal option " + option);
+            }
+            switch (pair[0]) {
+                case "moves":
+                    syncMoves = Integer.parseInt(pair[1]);
+                    break;
+                case "millis":
+                    syncMillis = Long.parseLong(pair[1]);
+                    break;
+                case "snapshot":
+                    snapshotMoves = Integer.parseInt(pair[1]);
+                    break;
+                case "history":
+                    history = Integer.parseInt(pair[1]) != 0;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal option " + pair[0]);
+            }
+        }
+        if (syncMoves <= 0 && syncMillis <= 0) {
+            syncMoves = 1; // Otherwise nothing would be forced until the journal is closed
+        }
+        return new KwazamJournal(file, game, syncMoves, syncMillis, snapshotMoves, history);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void moveMade(KwazamGame g, int move) {
+        record(MOVE, move);
+    }
+
+    @Override
+    public void moveUndone(KwazamGame g, int move) {
+        record(UNDO, move);
+    }
+
+    @Override
+    public void gameReset(KwazamGame g) {
+        takeSnapshot();
+    }
+
+    // Called on the game's thread, after the game has changed
+    private void record(byte type, int move) {
+        boolean snapshotDue;
+        synchronized (lock) {
+            snapshotDue = failed;
+        }
+        // A position-only snapshot cannot take back a move made before it: start again from here instead
+        boolean beforeSnapshot = type == UNDO && !history && movesAfterSnapshot == 0;
+        movesAfterSnapshot += type == MOVE ? 1 : -1;
+        if (snapshotDue || beforeSnapshot || ++sinceSnapshot >= snapshotMoves) {
+            takeSnapshot(); // It has the move in it
+            return;
+        }
+        boolean syncDue;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (pending.remaining() < RECORD_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                pending.flip();
+                pending = larger.put(pending);
+            }
+            pending.put(type).putShort(KwazamSaveFile.packSquares(move));
+            syncDue = syncMoves > 0 && ++unsynced >= syncMoves;
+        }
+        if (syncDue) {
+            syncQuietly();
+        }
+    }
+
+    // Called on the game's thread: the snapshot replaces the records not yet written
+    private void takeSnapshot() {
+        ByteBuffer bytes = snapshotOf(game, history);
+        sinceSnapshot = 0;
+        movesAfterSnapshot = 0;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            snapshot = bytes;
+            pending.clear();
+            failed = false;
+        }
+        if (syncMoves > 0) {
+            syncQuietly();
+        }
+    }
+
+    // Lays out a whole journal file holding a snapshot of the game and no records
+    private static ByteBuffer snapshotOf(KwazamGame game, boolean history) {
+        int[] moves = history ? game.getMoves() : null;
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES + KwazamSaveFile.maxBytes(moves == null ? -1 : moves.length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(MAGIC).put((byte) VERSION).put((byte) 0).putShort((short) 0).putInt(0);
+        KwazamSaveFile.write(bytes, game.getPosition(), moves);
+        bytes.putInt(HEADER_BYTES - 4, bytes.position() - HEADER_BYTES);
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Writes what the journal has taken so far and forces it to the disk.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (snapshot != null) {
+                rewrite(snapshot);
+                snapshot = null;
+            }
+            if (pending.position() > 0) {
+                pending.flip();
+                while (pending.hasRemaining()) {
+                    channel.write(pending);
+                }
+                pending.clear();
+                dirty = true;
+            }
+            if (dirty) {
+                channel.force(false);
+                dirty = false;
+            }
+            unsynced = 0;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            KwazamLog.log(KwazamLog.ERROR, "Cannot write the journal " + file, e);
+            synchronized (lock) {
+                // The file may have half a batch at its end; start it again from the game
+                failed = true;
+                pending.clear();
+                snapshot = null;
+            }
+        }
+    }
+
+    // Writes a new file next to the journal and moves it into place, so a crash leaves one or the other whole
+    private void rewrite(ByteBuffer bytes) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(false);
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        dirty = false;
+    }
+
+    // Makes the move of the new file durable, where the platform lets a directory be forced
+    private void syncDirectory() {
+        File directory = file.getAbsoluteFile().getParentFile();
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not supported here, e.g. on Windows
+        }
+    }
+
+    /**
+     * Writes and forces what the journal has taken and stops listening to
+     * the game. Call it on the game's thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncTask != null) {
+            syncTask.cancel(false);
+        }
+        game.removeListener(this);
+        try {
+            sync();
+        } finally {
+            synchronized (lock) {
+                closed = true;
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a game from its journal: the snapshot, then the records after
+     * it, up to the first one cut short or not matching the game.
+     *
+     * @param file The journal file.
+     * @return The game, with the moves since the snapshot played so they can be taken back, and
+     * those before it too if the snapshot kept them.
+     * @throws IOException If the file cannot be read or does not start with a whole snapshot.
+     */
+    public static KwazamGame recover(File file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES || in.getInt(0) != MAGIC) {
+            throw new IOException(file + ": Not a Kwazam journal");
+        }
+        if (in.get(4) != VERSION) {
+            throw new IOException(file + ": Unsupported journal version " + in.get(4));
+        }
+        int length = in.getInt(HEADER_BYTES - 4);
+        if (length < 0 || length > in.remaining() - HEADER_BYTES) {
+            throw new IOException(file + ": The snapshot is cut short");
+        }
+        in.position(HEADER_BYTES).limit(HEADER_BYTES + length);
+        KwazamGame game;
+        try {
+            game = KwazamSaveFile.read(in.slice().order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        in.limit(in.capacity()).position(HEADER_BYTES + length);
+
+        int records = 0;
+        while (in.remaining() >= RECORD_BYTES) {
+            int offset = in.position();
+            byte type = in.get();
+            short squares = in.getShort();
+            boolean applied;
+            if (type == MOVE) {
+                applied = KwazamSaveFile.submitSquares(game, squares);
+            } else if (type == UNDO) {
+                applied = game.getMoveCount() > 0 && KwazamSaveFile.packSquares(game.getLastMove()) == squares && game.undo();
+            } else {
+                applied = false;
+            }
+            if (!applied) {
+                KwazamLog.log(KwazamLog.WARN, "%s: bad record at byte %s, recovered up to it", file, offset);
+                return game;
+            }
+            records++;
+        }
+        if (in.hasRemaining()) {
+            KwazamLog.log(KwazamLog.WARN, "%s: last record cut short, recovered up to it", file);
+        }
+        KwazamLog.log(KwazamLog.INFO, "%s: recovered, playing %s records after the snapshot", file, records);
+        return game;
+    }
+}
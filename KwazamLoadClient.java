@@ -0,0 +1,219 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts load on a KwazamServer and measures how fast it answers.
+ *
+ * Every connection opens a number of games at once and plays random legal
+ * moves in them in turn, one move in flight at a time, until every game is
+ * over or has reached the move limit. The time from sending a move to
+ * reading its acknowledgement is recorded for every move, and the
+ * percentiles over all connections are reported at the end.
+ */
+public class KwazamLoadClient {
+
+    private final String host;
+    private final int port;
+    private final int gamesPerConnection;
+    private final int maxMoves;
+
+    /**
+     * @param host The server's host.
+     * @param port The server's port.
+     * @param gamesPerConnection The number of games each connection plays at once.
+     * @param maxMoves The most moves played in a game.
+     */
+    public KwazamLoadClient(String host, int port, int gamesPerConnection, int maxMoves) {
+        this.host = host;
+        this.port = port;
+        this.gamesPerConnection = gamesPerConnection;
+        this.maxMoves = maxMoves;
+    }
+
+    /**
+     * Runs the connections, each on a thread of its own, and waits for them.
+     *
+     * @param connections The number of connections.
+     * @return The combined results.
+     */
+    public Report run(int connections) throws Exception {
+        ExecutorService pool = KwazamServer.newConnectionExecutor("KwazamLoadClient connection");
+        long start = System.nanoTime();
+        List<Future<Report>> parts = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            final long seed = c;
+            parts.add(pool.submit(() -> play(new Random(seed))));
+        }
+        Report report = new Report();
+        for (Future<Report> part : parts) {
+            report.add(part.get());
+        }
+        report.nanos = System.nanoTime() - start;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        return report;
+    }
+
+    // One connection: open the games, then play a move in each in turn until all are done
+    private Report play(Random random) throws IOException {
+        Report report = new Report();
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+
+            long[] ids = new long[gamesPerConnection];
+            KwazamGame[] games = new KwazamGame[gamesPerConnection]; // Our copy, to pick legal moves from
+            for (int g = 0; g < gamesPerConnection; g++) {
+                String reply = request(in, out, "NEW");
+                ids[g] = Long.parseLong(reply.substring(3));
+                games[g] = new KwazamGame();
+            }
+            report.games += gamesPerConnection;
+
+            int playing = gamesPerConnection;
+            for (int ply = 0; ply < maxMoves && playing > 0; ply++) {
+                playing = 0;
+                for (int g = 0; g < gamesPerConnection; g++) {
+                    if (games[g].isOver()) {
+                        continue;
+                    }
+                    int[] moves = games[g].getLegalMoves();
+                    String move = KwazamMove.toString(moves[random.nextInt(moves.length)]);
+                    long sent = System.nanoTime();
+                    String reply = request(in, out, "MOVE " + ids[g] + " " + move);
+                    report.record(System.nanoTime() - sent);
+                    if (!reply.startsWith("OK")) {
+                        report.errors++;
+                    }
+                    games[g].submitMove(move);
+                    if (!games[g].isOver()) {
+                        playing++;
+                    }
+                }
+            }
+
+            for (int g = 0; g < gamesPerConnection; g++) {
+                request(in, out, "CLOSE " + ids[g]);
+            }
+            request(in, out, "QUIT");
+        }
+        return report;
+    }
+
+    private static String request(BufferedReader in, Writer out, String command) throws IOException {
+        out.write(command);
+        out.write('\n');
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null) {
+            throw new IOException("The server closed the connection");
+        }
+        return reply;
+    }
+
+    /**
+     * What a run did and how long the moves took to be acknowledged.
+     */
+    public static class Report {
+        private long[] latencies = new long[1024];
+        private int moves;
+        private int games;
+        private int errors;
+        private long nanos;
+
+        void record(long latency) {
+            if (moves == latencies.length) {
+                latencies = Arrays.copyOf(latencies, moves * 2);
+            }
+            latencies[moves++] = latency;
+        }
+
+        void add(Report other) {
+            if (moves + other.moves > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, moves + other.moves));
+            }
+            System.arraycopy(other.latencies, 0, latencies, moves, other.moves);
+            moves += other.moves;
+            games += other.games;
+            errors += other.errors;
+        }
+
+        public int getMoves() {
+            return moves;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * Gets a percentile of the acknowledgement times.
+         *
+         * @param percent The percentile, e.g. 99.
+         * @return The time in milliseconds.
+         */
+        public double getLatencyMillis(double percent) {
+            if (moves == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, moves);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(moves - 1, Math.ceil(percent / 100 * moves) - 1);
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, %d moves in %.2f s (%.0f moves/s), %d errors%n"
+                            + "move acknowledged in p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                    games, moves, nanos / 1e9, moves / (nanos / 1e9), errors,
+                    getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99), getLatencyMillis(99.9),
+                    getLatencyMillis(100));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = KwazamServer.DEFAULT_PORT;
+        int connections = 100;
+        int games = 10;
+        int moves = 100;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-host")) {
+                host = args[++i];
+            } else if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-connections")) {
+                connections = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-games")) {
+                games = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-moves")) {
+                moves = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Usage: java KwazamLoadClient [-host h] [-port n] [-connections n] [-games n] [-moves n]");
+                return;
+            }
+        }
+        System.out.println(connections + " connections playing " + games + " games each, "
+                + connections * games + " games at once");
+        System.out.println(new KwazamLoadClient(host, port, games, moves).run(connections));
+    }
+}
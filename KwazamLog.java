@@ -0,0 +1,288 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Logging for Kwazam Chess.
+ *
+ * Records below the level set by the kwazam.log.level system property
+ * (TRACE, DEBUG, INFO, WARN, ERROR or OFF; WARN by default) are dropped by a
+ * check against a constant, which the JIT compiles away together with the
+ * call, so logging in the move path costs nothing unless it is turned on.
+ *
+ * Records that are logged are put in a bounded ring buffer and written by a
+ * background thread, to the file named by kwazam.log.file or else to the
+ * console, so a move never waits for console or disk I/O. Messages are only
+ * formatted on that thread. When the ring is full, new records are dropped
+ * and counted rather than holding up the game; kwazam.log.capacity sets the
+ * size of the ring.
+ *
+ * Arguments are formatted after the call returns, so they should be values
+ * that do not change afterwards, such as numbers and strings.
+ */
+public final class KwazamLog {
+
+    public static final int TRACE = 0;
+    public static final int DEBUG = 1;
+    public static final int INFO = 2;
+    public static final int WARN = 3;
+    public static final int ERROR = 4;
+    public static final int OFF = 5;
+
+    private static final String[] LEVEL_NAMES = {"TRACE", "DEBUG", "INFO", "WARN", "ERROR", "OFF"};
+
+    private static final int LEVEL = parseLevel(System.getProperty("kwazam.log.level"), WARN);
+    private static final int CAPACITY = Math.max(16, Integer.getInteger("kwazam.log.capacity", 8192));
+    private static final int BATCH = 256; // Most records the writer takes out of the ring at once
+
+    private static final Object lock = new Object();
+    private static final Record[] ring = newRecords(CAPACITY);
+    private static long head = 0; // Sequence number of the oldest record in the ring
+    private static long tail = 0; // Sequence number the next record will get
+    private static long written = 0; // Sequence number of the next record to be written
+    private static long dropped = 0; // Records dropped because the ring was full, not yet reported
+    private static Thread writer;
+
+    private KwazamLog() {
+    }
+
+    /**
+     * Checks whether records of a level are logged. Use it to skip work that
+     * only builds a log message, e.g. drawing the whole board.
+     *
+     * @param level The level, e.g. KwazamLog.DEBUG.
+     * @return Whether the level is at or above the configured one.
+     */
+    public static boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    /**
+     * Gets the configured level, e.g. KwazamLog.WARN.
+     */
+    public static int getLevel() {
+        return LEVEL;
+    }
+
+    public static void log(int level, String message) {
+        if (level >= LEVEL) {
+            append(level, message, null, null, null, 0);
+        }
+    }
+
+    /**
+     * Logs a message made by String.format from a format and its arguments.
+     *
+     * @param level The level, e.g. KwazamLog.DEBUG.
+     * @param format The format, e.g. "Placed %s at (%d, %d)".
+     * @param argument The argument.
+     */
+    public static void log(int level, String format, Object argument) {
+        if (level >= LEVEL) {
+            append(level, format, argument, null, null, 1);
+        }
+    }
+
+    public static void log(int level, String format, Object first, Object second) {
+        if (level >= LEVEL) {
+            append(level, format, first, second, null, 2);
+        }
+    }
+
+    public static void log(int level, String format, Object first, Object second, Object third) {
+        if (level >= LEVEL) {
+            append(level, format, first, second, third, 3);
+        }
+    }
+
+    /**
+     * Logs a message together with the stack trace of an exception.
+     *
+     * @param level The level, e.g. KwazamLog.ERROR.
+     * @param message The message.
+     * @param thrown The exception.
+     */
+    public static void log(int level, String message, Throwable thrown) {
+        if (level >= LEVEL) {
+            append(level, message, thrown, null, null, -1);
+        }
+    }
+
+    /**
+     * Waits until every record logged before the call has been written.
+     */
+    public static void flush() {
+        synchronized (lock) {
+            long target = tail;
+            while (written < target && writer != null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Put a record in the ring, or count it as dropped if the ring is full
+    private static void append(int level, String format, Object first, Object second, Object third, int arguments) {
+        long time = System.currentTimeMillis();
+        String thread = Thread.currentThread().getName();
+        synchronized (lock) {
+            if (tail - head == CAPACITY) {
+                dropped++;
+                return;
+            }
+            Record record = ring[(int) (tail % CAPACITY)];
+            record.time = time;
+            record.level = level;
+            record.thread = thread;
+            record.format = format;
+            record.first = first;
+            record.second = second;
+            record.third = third;
+            record.arguments = arguments;
+            if (tail == head) {
+                lock.notifyAll(); // Wake the writer
+            }
+            tail++;
+            if (writer == null) {
+                startWriter();
+            }
+        }
+    }
+
+    // Called holding the lock
+    private static void startWriter() {
+        writer = new Thread(KwazamLog::write, "KwazamLog writer");
+        writer.setDaemon(true); // Logging must not keep the application alive
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(KwazamLog::flush, "KwazamLog flush"));
+    }
+
+    // The writer thread: swap full records out of the ring for empty ones, then write them outside the lock
+    private static void write() {
+        PrintStream out = openOutput();
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        Record[] batch = newRecords(BATCH);
+        while (true) {
+            int count;
+            long droppedNow;
+            synchronized (lock) {
+                while (head == tail) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                count = 0;
+                while (count < BATCH && head + count < tail) {
+                    int slot = (int) ((head + count) % CAPACITY);
+                    Record full = ring[slot];
+                    ring[slot] = batch[count];
+                    batch[count] = full;
+                    count++;
+                }
+                head += count;
+                droppedNow = dropped;
+                dropped = 0;
+            }
+            if (droppedNow > 0) {
+                out.println(timeFormat.format(new Date()) + " WARN [KwazamLog writer] "
+                        + droppedNow + " log records dropped, the ring buffer was full");
+            }
+            for (int i = 0; i < count; i++) {
+                Record record = batch[i];
+                out.println(timeFormat.format(new Date(record.time)) + " " + LEVEL_NAMES[record.level]
+                        + " [" + record.thread + "] " + record.message());
+                if (record.arguments < 0) {
+                    ((Throwable) record.first).printStackTrace(out);
+                }
+                record.clear();
+            }
+            out.flush();
+            synchronized (lock) {
+                written += count;
+                lock.notifyAll(); // Wake anyone waiting in flush()
+            }
+        }
+    }
+
+    private static PrintStream openOutput() {
+        String fileName = System.getProperty("kwazam.log.file");
+        if (fileName != null && !fileName.isEmpty()) {
+            try {
+                return new PrintStream(new FileOutputStream(fileName, true), false, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Cannot open log file " + fileName + ", logging to the console: " + e);
+            }
+        }
+        return System.out;
+    }
+
+    private static int parseLevel(String name, int defaultLevel) {
+        if (name == null) {
+            return defaultLevel;
+        }
+        for (int level = TRACE; level <= OFF; level++) {
+            if (LEVEL_NAMES[level].equalsIgnoreCase(name.trim())) {
+                return level;
+            }
+        }
+        System.err.println("Unknown log level " + name + ", using " + LEVEL_NAMES[defaultLevel]);
+        return defaultLevel;
+    }
+
+    private static Record[] newRecords(int size) {
+        Record[] records = new Record[size];
+        for (int i = 0; i < size; i++) {
+            records[i] = new Record();
+        }
+        return records;
+    }
+
+    // One slot of the ring. Slots are reused, so logging a record allocates nothing.
+    private static final class Record {
+        long time;
+        int level;
+        String thread;
+        String format;
+        Object first;
+        Object second;
+        Object third;
+        int arguments; // Number of format arguments, or -1 if first is an exception to print
+
+        String message() {
+            try {
+                return format();
+            } catch (RuntimeException e) { // A bad format must not stop the writer
+                return format + " (cannot format: " + e + ")";
+            }
+        }
+
+        private String format() {
+            switch (arguments) {
+                case 1:
+                    return String.format(format, first);
+                case 2:
+                    return String.format(format, first, second);
+                case 3:
+                    return String.format(format, first, second, third);
+                default:
+                    return format;
+            }
+        }
+
+        void clear() {
+            thread = null;
+            format = null;
+            first = null;
+            second = null;
+            third = null;
+        }
+    }
+}
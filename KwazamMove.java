@@ -0,0 +1,112 @@
+/**
+ * Packs a Kwazam Chess move into a single int, so moves can be stored,
+ * compared and undone without allocating objects.
+ *
+ * Layout, from the lowest bit:
+ * 6 bits from square, 6 bits to square, 4 bits moving piece, 4 bits captured
+ * piece, then one flag each for a Ram turning around, a captured Ram that had
+ * turned around, and the Xor/Tor transformation that follows the move.
+ * Piece codes are the ones of KwazamPosition, as the pieces play when the move is made.
+ */
+public final class KwazamMove {
+
+    public static final int NONE = 0;
+
+    public static final int REACHES_END = 1 << 20;   // The moving Ram turns around on this move
+    public static final int CAPTURED_END = 1 << 21;  // The captured Ram had turned around
+    public static final int PHASE_CHANGE = 1 << 22;  // Xor and Tor transform after this move
+
+    private static final int SQUARE_MASK = 0x3F;
+    private static final int PIECE_MASK = 0xF;
+
+    private KwazamMove() {
+    }
+
+    /**
+     * Packs a move.
+     *
+     * @param from The square the piece leaves.
+     * @param to The square the piece lands on.
+     * @param piece The moving piece code.
+     * @param captured The captured piece code, or EMPTY.
+     * @param flags Any of REACHES_END, CAPTURED_END and PHASE_CHANGE.
+     * @return The packed move.
+     */
+    public static int create(int from, int to, int piece, int captured, int flags) {
+        return from | (to << 6) | (piece << 12) | (captured << 16) | flags;
+    }
+
+    public static int from(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & SQUARE_MASK;
+    }
+
+    public static int piece(int move) {
+        return (move >>> 12) & PIECE_MASK;
+    }
+
+    public static int captured(int move) {
+        return (move >>> 16) & PIECE_MASK;
+    }
+
+    public static boolean isCapture(int move) {
+        return captured(move) != KwazamPosition.EMPTY;
+    }
+
+    public static boolean reachesEnd(int move) {
+        return (move & REACHES_END) != 0;
+    }
+
+    public static boolean capturedEnd(int move) {
+        return (move & CAPTURED_END) != 0;
+    }
+
+    public static boolean changesPhase(int move) {
+        return (move & PHASE_CHANGE) != 0;
+    }
+
+    /**
+     * Gets the name of a square, with files a to e from left to right and
+     * ranks 1 to 8 counted from Blue's back row.
+     *
+     * @param square The square index.
+     * @return The square name, e.g. "c1".
+     */
+    public static String squareName(int square) {
+        return "" + (char) ('a' + KwazamPosition.col(square)) + (KwazamPosition.HEIGHT - KwazamPosition.row(square));
+    }
+
+    /**
+     * Parses a square name produced by squareName.
+     *
+     * @param name The square name.
+     * @return The square index, or -1 if the name is not a square.
+     */
+    public static int parseSquare(String name) {
+        if (name.length() != 2) {
+            return -1;
+        }
+        int col = name.charAt(0) - 'a';
+        int row = KwazamPosition.HEIGHT - (name.charAt(1) - '0');
+        if (col < 0 || col >= KwazamPosition.WIDTH || row < 0 || row >= KwazamPosition.HEIGHT) {
+            return -1;
+        }
+        return KwazamPosition.square(row, col);
+    }
+
+    /**
+     * Returns the move in coordinate notation, e.g. "a2a3".
+     *
+     * @param move The packed move.
+     * @return The move text.
+     */
+    public static String toString(int move) {
+        if (move == NONE) {
+            return "----";
+        }
+        return squareName(from(move)) + squareName(to(move));
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Generates Kwazam Chess moves straight from the bitboards of a KwazamPosition.
+ * Biz and Sau moves come from precomputed jump tables, Tor and Xor moves from
+ * precomputed rays cut at the first blocker, and Ram moves from step tables
+ * for each colour, so a whole side is generated in one pass over its pieces.
+ *
+ * Moves are written into a caller supplied int buffer, packed as KwazamMove ints.
+ */
+public final class KwazamMoveGenerator {
+
+    // Upper bound on the number of moves one side can have in any position.
+    public static final int MAX_MOVES = 128;
+
+    // Ray directions as (row, column) steps. The first four are orthogonal (Tor),
+    // the last four diagonal (Xor).
+    private static final int[] DIR_ROW = {-1, 1, 0, 0, -1, -1, 1, 1};
+    private static final int[] DIR_COL = {0, 0, 1, -1, 1, -1, 1, -1};
+    // Whether a direction runs towards higher square indices.
+    private static final boolean[] POSITIVE = new boolean[8];
+
+    private static final long[][] RAYS = new long[8][KwazamPosition.SQUARES];
+    private static final long[] BIZ_ATTACKS = new long[KwazamPosition.SQUARES];
+    private static final long[] SAU_ATTACKS = new long[KwazamPosition.SQUARES];
+    // One step forward and one step backward for each colour's Rams.
+    private static final long[][] RAM_FORWARD = new long[2][KwazamPosition.SQUARES];
+    private static final long[][] RAM_BACKWARD = new long[2][KwazamPosition.SQUARES];
+    // The row each colour's Rams are heading for, and the row they start behind.
+    private static final long[] FAR_ROW = new long[2];
+    private static final long[] BACK_ROW = new long[2];
+
+    static {
+        long topRow = (1L << KwazamPosition.WIDTH) - 1;
+        long bottomRow = topRow << (KwazamPosition.SQUARES - KwazamPosition.WIDTH);
+        FAR_ROW[KwazamPosition.BLUE] = topRow;
+        FAR_ROW[KwazamPosition.RED] = bottomRow;
+        BACK_ROW[KwazamPosition.BLUE] = bottomRow;
+        BACK_ROW[KwazamPosition.RED] = topRow;
+
+        for (int dir = 0; dir < 8; dir++) {
+            POSITIVE[dir] = DIR_ROW[dir] > 0 || (DIR_ROW[dir] == 0 && DIR_COL[dir] > 0);
+        }
+
+        int[][] bizSteps = {{-2, -1}, {-2, 1}, {2, -1}, {2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}};
+        for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+            int row = KwazamPosition.row(sq);
+            int col = KwazamPosition.col(sq);
+
+            for (int dir = 0; dir < 8; dir++) {
+                long ray = 0L;
+                int r = row + DIR_ROW[dir];
+                int c = col + DIR_COL[dir];
+                while (onBoard(r, c)) {
+                    ray |= KwazamPosition.bit(KwazamPosition.square(r, c));
+                    r += DIR_ROW[dir];
+                    c += DIR_COL[dir];
+                }
+                RAYS[dir][sq] = ray;
+                if (onBoard(row + DIR_ROW[dir], col + DIR_COL[dir])) {
+                    SAU_ATTACKS[sq] |= KwazamPosition.bit(KwazamPosition.square(row + DIR_ROW[dir], col + DIR_COL[dir]));
+                }
+            }
+
+            for (int[] step : bizSteps) {
+                if (onBoard(row + step[0], col + step[1])) {
+                    BIZ_ATTACKS[sq] |= KwazamPosition.bit(KwazamPosition.square(row + step[0], col + step[1]));
+                }
+            }
+
+            if (row > 0) {
+                RAM_FORWARD[KwazamPosition.BLUE][sq] = KwazamPosition.bit(sq - KwazamPosition.WIDTH);
+                RAM_BACKWARD[KwazamPosition.RED][sq] = KwazamPosition.bit(sq - KwazamPosition.WIDTH);
+            }
+            if (row < KwazamPosition.HEIGHT - 1) {
+                RAM_FORWARD[KwazamPosition.RED][sq] = KwazamPosition.bit(sq + KwazamPosition.WIDTH);
+                RAM_BACKWARD[KwazamPosition.BLUE][sq] = KwazamPosition.bit(sq + KwazamPosition.WIDTH);
+            }
+        }
+
+        // A Ram that has turned around may not walk back onto its own starting row.
+        for (int color = 0; color < 2; color++) {
+            for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+                RAM_BACKWARD[color][sq] &= ~BACK_ROW[color];
+            }
+        }
+    }
+
+    private KwazamMoveGenerator() {
+    }
+
+    private static boolean onBoard(int row, int col) {
+        return row >= 0 && row < KwazamPosition.HEIGHT && col >= 0 && col < KwazamPosition.WIDTH;
+    }
+
+    // Attack tables
+
+    public static long bizAttacks(int square) {
+        return BIZ_ATTACKS[square];
+    }
+
+    public static long sauAttacks(int square) {
+        return SAU_ATTACKS[square];
+    }
+
+    public static long farRow(int color) {
+        return FAR_ROW[color];
+    }
+
+    // Squares reached along one ray, up to and including the first blocker.
+    private static long rayAttacks(int dir, int square, long occupied) {
+        long ray = RAYS[dir][square];
+        long blockers = ray & occupied;
+        if (blockers != 0) {
+            int first = POSITIVE[dir]
+                    ? Long.numberOfTrailingZeros(blockers)
+                    : 63 - Long.numberOfLeadingZeros(blockers);
+            ray ^= RAYS[dir][first];
+        }
+        return ray;
+    }
+
+    public static long torAttacks(int square, long occupied) {
+        return rayAttacks(0, square, occupied) | rayAttacks(1, square, occupied)
+                | rayAttacks(2, square, occupied) | rayAttacks(3, square, occupied);
+    }
+
+    public static long xorAttacks(int square, long occupied) {
+        return rayAttacks(4, square, occupied) | rayAttacks(5, square, occupied)
+                | rayAttacks(6, square, occupied) | rayAttacks(7, square, occupied);
+    }
+
+    public static long ramAttacks(int color, int square, boolean hasReachedEnd) {
+        if (hasReachedEnd) {
+            // Turned around: back towards its own side, or on to the far row to capture there
+            return RAM_BACKWARD[color][square] | (RAM_FORWARD[color][square] & FAR_ROW[color]);
+        }
+        return RAM_FORWARD[color][square];
+    }
+
+    /**
+     * Gets every square a piece could move to from a square, ignoring whose
+     * pieces stand on the destinations.
+     *
+     * @param piece The piece code as it currently plays.
+     * @param square The square the piece stands on.
+     * @param occupied All occupied squares.
+     * @param hasReachedEnd Whether the piece is a Ram that has turned around.
+     * @return A bitboard of destination squares.
+     */
+    public static long attacks(int piece, int square, long occupied, boolean hasReachedEnd) {
+        switch (KwazamPosition.typeOf(piece)) {
+            case KwazamPosition.RAM:
+                return ramAttacks(KwazamPosition.colorOf(piece), square, hasReachedEnd);
+            case KwazamPosition.TOR:
+                return torAttacks(square, occupied);
+            case KwazamPosition.XOR:
+                return xorAttacks(square, occupied);
+            case KwazamPosition.BIZ:
+                return BIZ_ATTACKS[square];
+            case KwazamPosition.SAU:
+                return SAU_ATTACKS[square];
+            default:
+                return 0L;
+        }
+    }
+
+    /**
+     * Gets every square the piece on a square may legally move to.
+     *
+     * @param position The position.
+     * @param square The square holding the piece.
+     * @return A bitboard of destination squares, empty if the square is empty.
+     */
+    public static long targets(KwazamPosition position, int square) {
+        int piece = position.pieceAt(square);
+        if (piece == KwazamPosition.EMPTY) {
+            return 0L;
+        }
+        return attacks(piece, square, position.occupied(), position.hasReachedEnd(square))
+                & ~position.occupancy(KwazamPosition.colorOf(piece));
+    }
+
+    /**
+     * Generates all moves of the piece on a square.
+     *
+     * @param position The position.
+     * @param square The square holding the piece.
+     * @param moves The buffer to write the moves into.
+     * @param count The number of moves already in the buffer.
+     * @return The new number of moves in the buffer.
+     */
+    public static int generate(KwazamPosition position, int square, int[] moves, int count) {
+        return generate(position, square, KwazamPosition.BOARD_MASK, moves, count);
+    }
+
+    // Generates the moves of the piece on a square that land on one of the given squares.
+    private static int generate(KwazamPosition position, int square, long mask, int[] moves, int count) {
+        long targets = targets(position, square) & mask;
+        if (targets == 0) {
+            return count;
+        }
+        int piece = position.pieceAt(square);
+        int common = KwazamMove.create(square, 0, piece, KwazamPosition.EMPTY, phaseFlag(position));
+        // Squares on which this piece turns around, if it is a Ram that has not yet done so
+        long turnAround = KwazamPosition.typeOf(piece) == KwazamPosition.RAM && !position.hasReachedEnd(square)
+                ? FAR_ROW[KwazamPosition.colorOf(piece)] : 0L;
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            moves[count++] = common | (to << 6) | capture(position, to)
+                    | ((turnAround & KwazamPosition.bit(to)) != 0 ? KwazamMove.REACHES_END : 0);
+        }
+        return count;
+    }
+
+    // The Xor/Tor transformation happens after every move that leaves an even move count.
+    private static int phaseFlag(KwazamPosition position) {
+        return (position.getMoveCount() & 1) == 1 ? KwazamMove.PHASE_CHANGE : 0;
+    }
+
+    // Captured piece bits of a move landing on a square.
+    private static int capture(KwazamPosition position, int to) {
+        int captured = position.pieceAt(to);
+        if (captured == KwazamPosition.EMPTY) {
+            return 0;
+        }
+        return (captured << 16) | (position.hasReachedEnd(to) ? KwazamMove.CAPTURED_END : 0);
+    }
+
+    /**
+     * Builds the packed move of the side to move from one square to another.
+     *
+     * @param position The position.
+     * @param from The square the piece leaves.
+     * @param to The square the piece lands on.
+     * @return The packed move, or KwazamMove.NONE if it is not a legal move.
+     */
+    public static int createMove(KwazamPosition position, int from, int to) {
+        int side = position.sideToMove();
+        int piece = position.pieceAt(from);
+        if (piece == KwazamPosition.EMPTY || KwazamPosition.colorOf(piece) != side
+                || position.bitboard(side, KwazamPosition.SAU) == 0
+                || (targets(position, from) & KwazamPosition.bit(to)) == 0) {
+            return KwazamMove.NONE;
+        }
+        int flags = phaseFlag(position);
+        if (KwazamPosition.typeOf(piece) == KwazamPosition.RAM && !position.hasReachedEnd(from)
+                && (FAR_ROW[side] & KwazamPosition.bit(to)) != 0) {
+            flags |= KwazamMove.REACHES_END;
+        }
+        return KwazamMove.create(from, to, piece, KwazamPosition.EMPTY, flags) | capture(position, to);
+    }
+
+    /**
+     * Generates all moves of the side to move. A side whose Sau has been
+     * captured has lost and gets no moves.
+     *
+     * @param position The position.
+     * @param moves The buffer to write the moves into, at least MAX_MOVES long.
+     * @return The number of moves generated.
+     */
+    public static int generate(KwazamPosition position, int[] moves) {
+        return generate(position, KwazamPosition.BOARD_MASK, moves, 0);
+    }
+
+    /**
+     * Generates the captures of the side to move.
+     *
+     * @param position The position.
+     * @param moves The buffer to write the moves into.
+     * @param count The number of moves already in the buffer.
+     * @return The new number of moves in the buffer.
+     */
+    public static int generateCaptures(KwazamPosition position, int[] moves, int count) {
+        return generate(position, position.occupancy(1 - position.sideToMove()), moves, count);
+    }
+
+    /**
+     * Generates the moves of the side to move that do not capture.
+     *
+     * @param position The position.
+     * @param moves The buffer to write the moves into.
+     * @param count The number of moves already in the buffer.
+     * @return The new number of moves in the buffer.
+     */
+    public static int generateQuiets(KwazamPosition position, int[] moves, int count) {
+        return generate(position, ~position.occupied() & KwazamPosition.BOARD_MASK, moves, count);
+    }
+
+    // Generates the moves of the side to move that land on one of the given squares.
+    private static int generate(KwazamPosition position, long mask, int[] moves, int count) {
+        int side = position.sideToMove();
+        if (position.bitboard(side, KwazamPosition.SAU) == 0) {
+            return count;
+        }
+        long own = position.occupancy(side);
+        while (own != 0) {
+            int from = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            count = generate(position, from, mask, moves, count);
+        }
+        return count;
+    }
+
+    /**
+     * Builds the packed move of the side to move from its coordinate notation.
+     *
+     * @param position The position.
+     * @param text The move, e.g. "c2c3".
+     * @return The packed move, or KwazamMove.NONE if it is not a legal move there.
+     */
+    public static int parseMove(KwazamPosition position, String text) {
+        if (text.length() != 4) {
+            return KwazamMove.NONE;
+        }
+        int from = KwazamMove.parseSquare(text.substring(0, 2));
+        int to = KwazamMove.parseSquare(text.substring(2, 4));
+        if (from < 0 || to < 0) {
+            return KwazamMove.NONE;
+        }
+        return createMove(position, from, to);
+    }
+
+    /**
+     * Checks whether a packed move from elsewhere, e.g. a transposition table
+     * or a killer slot, is a legal move of the side to move in this position.
+     *
+     * @param position The position.
+     * @param move The packed move.
+     * @return true if the generator would produce exactly this move here.
+     */
+    public static boolean isLegal(KwazamPosition position, int move) {
+        return move != KwazamMove.NONE
+                && createMove(position, KwazamMove.from(move), KwazamMove.to(move)) == move;
+    }
+
+    /**
+     * Gets every piece of either colour that attacks a square, i.e. could move
+     * onto it if an enemy piece stood there.
+     *
+     * @param position The position.
+     * @param square The square.
+     * @param occupied The occupied squares to trace the Tor and Xor rays through,
+     * which may leave out pieces already exchanged off.
+     * @return A bitboard of the attacking pieces' squares, limited to occupied.
+     */
+    public static long attackersTo(KwazamPosition position, int square, long occupied) {
+        long attackers = 0L;
+        for (int color = KwazamPosition.BLUE; color <= KwazamPosition.RED; color++) {
+            attackers |= BIZ_ATTACKS[square] & position.bitboard(color, KwazamPosition.BIZ);
+            attackers |= SAU_ATTACKS[square] & position.bitboard(color, KwazamPosition.SAU);
+            attackers |= torAttacks(square, occupied) & position.bitboard(color, KwazamPosition.TOR);
+            attackers |= xorAttacks(square, occupied) & position.bitboard(color, KwazamPosition.XOR);
+            // Rams only ever step one row, so only the squares above and below can hold one
+            long rams = position.bitboard(color, KwazamPosition.RAM)
+                    & (RAM_FORWARD[KwazamPosition.BLUE][square] | RAM_FORWARD[KwazamPosition.RED][square]);
+            while (rams != 0) {
+                int from = Long.numberOfTrailingZeros(rams);
+                rams &= rams - 1;
+                if ((ramAttacks(color, from, position.hasReachedEnd(from)) & KwazamPosition.bit(square)) != 0) {
+                    attackers |= KwazamPosition.bit(from);
+                }
+            }
+        }
+        return attackers & occupied;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Hands out the moves of one search node best first, generating them in
+ * stages so that a node which cuts off early never generates the rest:
+ * the move from the transposition table, then winning and even captures
+ * with the most valuable victims and cheapest attackers first (MVV-LVA),
+ * then the killer moves and the countermove, then the remaining quiet moves
+ * by their history score, and last the captures that lose material.
+ * A Sau capture, which ends the game, always comes first among the captures.
+ * Whether a capture wins or loses is decided by static exchange evaluation.
+ *
+ * Every stage writes into one int buffer that is reused at every node of
+ * the same ply, so a search thread keeps one picker per ply and nothing is
+ * allocated while it runs.
+ */
+public class KwazamMovePicker {
+
+    // Stages, in the order they are visited.
+    private static final int HASH_MOVE = 0;
+    private static final int GENERATE_CAPTURES = 1;
+    private static final int GOOD_CAPTURES = 2;
+    private static final int FIRST_KILLER = 3;
+    private static final int SECOND_KILLER = 4;
+    private static final int COUNTER_MOVE = 5;
+    private static final int GENERATE_QUIETS = 6;
+    private static final int QUIETS = 7;
+    private static final int BAD_CAPTURES = 8;
+    private static final int DONE = 9;
+
+    private static final int SAU_CAPTURE = Integer.MAX_VALUE;
+
+    private final int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+    private final int[] scores = new int[KwazamMoveGenerator.MAX_MOVES];
+    private final int[] specials = new int[3]; // Killers and countermove handed out before the quiet moves
+
+    private KwazamPosition position;
+    private KwazamHistory history;
+    private int stage;
+    private int hashMove;
+    private int index;    // Next move to look at in the current stage
+    private int end;      // End of the moves of the current stage
+    private int badCount; // Losing captures set aside at the front of the buffer
+    private boolean capturesOnly;
+
+    /**
+     * Prepares to hand out the moves of a position. Nothing is generated yet.
+     *
+     * @param position The position, which must not change until the picker is done.
+     * @param hashMove The move from the transposition table, or KwazamMove.NONE.
+     * @param ply The ply of the node, for its killers.
+     * @param previousMove The opponent's last move, or KwazamMove.NONE.
+     * @param history The ordering tables of the search thread.
+     */
+    public void init(KwazamPosition position, int hashMove, int ply, int previousMove, KwazamHistory history) {
+        this.position = position;
+        this.history = history;
+        this.hashMove = KwazamMoveGenerator.isLegal(position, hashMove) ? hashMove : KwazamMove.NONE;
+        this.stage = this.hashMove != KwazamMove.NONE ? HASH_MOVE : GENERATE_CAPTURES;
+        specials[0] = history.killer(ply, 0);
+        specials[1] = history.killer(ply, 1);
+        specials[2] = history.counterMove(previousMove);
+        badCount = 0;
+        capturesOnly = false;
+    }
+
+    /**
+     * Prepares to hand out only the captures of a position that do not lose
+     * material, best first, for the quiescence search.
+     *
+     * @param position The position, which must not change until the picker is done.
+     */
+    public void initCaptures(KwazamPosition position) {
+        this.position = position;
+        hashMove = KwazamMove.NONE;
+        stage = GENERATE_CAPTURES;
+        badCount = 0;
+        capturesOnly = true;
+    }
+
+    /**
+     * Gets the next move.
+     *
+     * @return The packed move, or KwazamMove.NONE when every move has been handed out.
+     */
+    public int next() {
+        while (true) {
+            switch (stage) {
+                case HASH_MOVE:
+                    stage = GENERATE_CAPTURES;
+                    return hashMove;
+
+                case GENERATE_CAPTURES:
+                    end = KwazamMoveGenerator.generateCaptures(position, moves, 0);
+                    index = 0;
+                    scoreCaptures();
+                    stage = GOOD_CAPTURES;
+                    break;
+
+                case GOOD_CAPTURES:
+                    while (index < end) {
+                        int move = pickBest();
+                        if (move == hashMove) {
+                            continue;
+                        }
+                        if (scores[index - 1] != SAU_CAPTURE && !KwazamEvaluation.seeAtLeast(position, move, 0)) {
+                            if (!capturesOnly) {
+                                moves[badCount++] = move; // Never overtakes index, as each move is taken before it is set aside
+                            }
+                            continue;
+                        }
+                        return move;
+                    }
+                    stage = capturesOnly ? DONE : FIRST_KILLER;
+                    break;
+
+                case FIRST_KILLER:
+                case SECOND_KILLER:
+                case COUNTER_MOVE: {
+                    int slot = stage - FIRST_KILLER;
+                    stage++;
+                    int move = special(slot);
+                    if (move != KwazamMove.NONE) {
+                        return move;
+                    }
+                    break;
+                }
+
+                case GENERATE_QUIETS:
+                    index = end;
+                    end = KwazamMoveGenerator.generateQuiets(position, moves, end);
+                    scoreQuiets();
+                    stage = QUIETS;
+                    break;
+
+                case QUIETS:
+                    while (index < end) {
+                        int move = pickBest();
+                        if (move != hashMove && !isSpecial(move)) {
+                            return move;
+                        }
+                    }
+                    index = 0;
+                    stage = BAD_CAPTURES;
+                    break;
+
+                case BAD_CAPTURES:
+                    if (index < badCount) {
+                        return moves[index++];
+                    }
+                    stage = DONE;
+                    break;
+
+                default:
+                    return KwazamMove.NONE;
+            }
+        }
+    }
+
+    private void scoreCaptures() {
+        for (int i = index; i < end; i++) {
+            int move = moves[i];
+            int victim = KwazamPosition.typeOf(KwazamMove.captured(move));
+            int attacker = KwazamPosition.typeOf(KwazamMove.piece(move));
+            scores[i] = victim == KwazamPosition.SAU ? SAU_CAPTURE
+                    : KwazamEvaluation.PIECE_VALUES[victim] * 16 - KwazamEvaluation.PIECE_VALUES[attacker] / 16;
+        }
+    }
+
+    private void scoreQuiets() {
+        for (int i = index; i < end; i++) {
+            scores[i] = history.history(moves[i]);
+        }
+    }
+
+    // Selects the best scored move left in the stage and swaps it into place.
+    private int pickBest() {
+        int best = index;
+        for (int i = index + 1; i < end; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index] = move;
+        int score = scores[best];
+        scores[best] = scores[index];
+        scores[index] = score;
+        index++;
+        return move;
+    }
+
+    // Turns a killer or countermove slot into a legal quiet move of this position, or NONE.
+    private int special(int slot) {
+        int candidate = specials[slot];
+        specials[slot] = KwazamMove.NONE;
+        if (candidate == KwazamMove.NONE) {
+            return KwazamMove.NONE;
+        }
+        int move = KwazamMoveGenerator.createMove(position, KwazamMove.from(candidate), KwazamMove.to(candidate));
+        if (move == KwazamMove.NONE || KwazamMove.isCapture(move) || move == hashMove
+                || !KwazamHistory.sameMove(move, candidate) || isSpecial(move)) {
+            return KwazamMove.NONE; // Illegal here, handed out in another stage, or a duplicate of an earlier slot
+        }
+        specials[slot] = move;
+        return move;
+    }
+
+    // Whether a move was already handed out as a killer or countermove.
+    private boolean isSpecial(int move) {
+        return move == specials[0] || move == specials[1] || move == specials[2];
+    }
+}
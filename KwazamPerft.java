@@ -0,0 +1,249 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Perft (move path enumeration) for Kwazam Chess.
+ * Counts the leaf nodes of the game tree to a fixed depth, which checks the
+ * move generator against known counts and measures how fast the rules run.
+ * A game ends when a Sau is captured, so such positions have no children.
+ *
+ * Usage: java KwazamPerft depth [saveFile] [-divide] [-threads n] [-hash mb]
+ */
+public class KwazamPerft {
+
+    // Below this depth a subtree is counted by one thread instead of being split further.
+    private static final int SPLIT_DEPTH = 3;
+
+    private final PerftCache cache;
+
+    /**
+     * Creates a perft counter.
+     *
+     * @param hashMegabytes Size of the subtree cache in megabytes, or 0 for no cache.
+     */
+    public KwazamPerft(int hashMegabytes) {
+        this.cache = hashMegabytes > 0 ? new PerftCache(hashMegabytes) : null;
+    }
+
+    /**
+     * Counts the leaf nodes below a position on the calling thread.
+     *
+     * @param position The position, restored before returning.
+     * @param depth The depth in plies.
+     * @return The number of leaf nodes.
+     */
+    public long perft(KwazamPosition position, int depth) {
+        return perft(position, depth, new int[depth + 1][KwazamMoveGenerator.MAX_MOVES]);
+    }
+
+    private long perft(KwazamPosition position, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = buffers[depth];
+        int count = KwazamMoveGenerator.generate(position, moves);
+        if (depth == 1) {
+            return count; // Every generated move is legal, so leaves need not be made
+        }
+        if (cache != null) {
+            long cached = cache.get(position.key(), depth);
+            if (cached >= 0) {
+                return cached;
+            }
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1, buffers);
+            position.unmakeMove(moves[i]);
+        }
+        if (cache != null) {
+            cache.put(position.key(), depth, nodes);
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes below a position, splitting the tree across a fork-join pool.
+     *
+     * @param position The position. It is not modified.
+     * @param depth The depth in plies.
+     * @param pool The pool to run on.
+     * @return The number of leaf nodes.
+     */
+    public long parallelPerft(KwazamPosition position, int depth, ForkJoinPool pool) {
+        return pool.invoke(new PerftTask(new KwazamPosition(position), depth));
+    }
+
+    /**
+     * Counts the leaf nodes below each root move and prints them, one line per move.
+     *
+     * @param position The position, restored before returning.
+     * @param depth The depth in plies, at least 1.
+     * @param pool The pool to count each subtree on, or null to count on this thread.
+     * @return The total number of leaf nodes.
+     */
+    public long divide(KwazamPosition position, int depth, ForkJoinPool pool) {
+        int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+        int count = KwazamMoveGenerator.generate(position, moves);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            long nodes = pool != null ? parallelPerft(position, depth - 1, pool) : perft(position, depth - 1);
+            position.unmakeMove(moves[i]);
+            System.out.println(KwazamMove.toString(moves[i]) + ": " + nodes);
+            total += nodes;
+        }
+        System.out.println("\nMoves: " + count);
+        return total;
+    }
+
+    // Counts one subtree, forking a task for every child while the subtree is deep enough.
+    private class PerftTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final KwazamPosition position;
+        private final int depth;
+
+        PerftTask(KwazamPosition position, int depth) {
+            this.position = position;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth <= SPLIT_DEPTH) {
+                return perft(position, depth);
+            }
+            if (cache != null) {
+                long cached = cache.get(position.key(), depth);
+                if (cached >= 0) {
+                    return cached;
+                }
+            }
+            int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+            int count = KwazamMoveGenerator.generate(position, moves);
+            PerftTask[] children = new PerftTask[count];
+            for (int i = 0; i < count; i++) {
+                KwazamPosition child = new KwazamPosition(position);
+                child.makeMove(moves[i]);
+                children[i] = new PerftTask(child, depth - 1);
+                children[i].fork();
+            }
+            long nodes = 0;
+            for (int i = count - 1; i >= 0; i--) {
+                nodes += children[i].join();
+            }
+            if (cache != null) {
+                cache.put(position.key(), depth, nodes);
+            }
+            return nodes;
+        }
+    }
+
+    /**
+     * Shared cache of subtree counts keyed by position key and depth. Entries
+     * are two longs, the count and the count XORed with the mixed key, so
+     * threads may race on them and a torn entry just reads as a miss.
+     */
+    private static class PerftCache {
+        private final long[] table;
+        private final int mask;
+
+        PerftCache(int megabytes) {
+            int entries = Integer.highestOneBit(Math.min(megabytes, 1024) * (1 << 20) / 16);
+            table = new long[entries * 2];
+            mask = entries - 1;
+        }
+
+        private static long mix(long key, int depth) {
+            return key ^ (depth * 0x9E3779B97F4A7C15L);
+        }
+
+        long get(long key, int depth) {
+            long mixed = mix(key, depth);
+            int at = ((int) mixed & mask) << 1;
+            long count = table[at + 1];
+            return (table[at] ^ count) == mixed && count > 0 ? count : -1;
+        }
+
+        void put(long key, int depth, long count) {
+            long mixed = mix(key, depth);
+            int at = ((int) mixed & mask) << 1;
+            table[at] = mixed ^ count;
+            table[at + 1] = count;
+        }
+    }
+
+    /**
+     * Builds the starting position of a new game.
+     *
+     * @return The position of KwazamGame.startPosition().
+     */
+    public static KwazamPosition startPosition() {
+        return KwazamGame.startPosition();
+    }
+
+    /**
+     * Reads a position from a save file.
+     *
+     * @param saveFile The save file.
+     * @return The saved position.
+     */
+    public static KwazamPosition loadPosition(File saveFile) throws IOException {
+        if (KwazamSaveFile.isSaveFile(saveFile)) {
+            return new KwazamPosition(KwazamSaveFile.load(saveFile).getPosition());
+        }
+        KwazamPosition position = new KwazamPosition();
+        new KwazamTextSaveParser().read(saveFile, position);
+        return position;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java KwazamPerft depth [saveFile] [-divide] [-threads n] [-hash mb]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        String saveFile = null;
+        boolean divide = false;
+        int threads = 1;
+        int hash = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-divide")) {
+                divide = true;
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-hash")) {
+                hash = Integer.parseInt(args[++i]);
+            } else {
+                saveFile = args[i];
+            }
+        }
+
+        KwazamPosition position = saveFile == null ? startPosition() : loadPosition(new File(saveFile));
+        KwazamPerft perft = new KwazamPerft(hash);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        System.out.println(position);
+
+        long start = System.nanoTime();
+        long nodes;
+        if (divide && depth > 0) {
+            nodes = perft.divide(position, depth, pool);
+        } else if (pool != null) {
+            nodes = perft.parallelPerft(position, depth, pool);
+        } else {
+            nodes = perft.perft(position, depth);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Depth " + depth + ": " + nodes + " nodes");
+        System.out.printf("Time: %.3f s, %.0f nodes/s, %d thread(s)%s%n",
+                seconds, nodes / Math.max(seconds, 1e-9), threads, hash > 0 ? ", " + hash + " MB cache" : "");
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
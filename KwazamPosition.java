@@ -0,0 +1,480 @@
+/**
+ * Bitboard representation of a Kwazam Chess position.
+ * The 5x8 board has 40 squares, so every piece type of every colour fits in a
+ * single long. Squares are numbered row * WIDTH + col in absolute coordinates,
+ * with row 0 being Red's back row and row 7 being Blue's back row.
+ *
+ * Pieces are stored by their base type, the type they have while the Xor/Tor
+ * phase is off. When the phase is on every Xor is read as a Tor and every Tor
+ * as a Xor, so the transformation never has to touch the bitboards.
+ */
+public class KwazamPosition {
+
+    public static final int WIDTH = 5;
+    public static final int HEIGHT = 8;
+    public static final int SQUARES = WIDTH * HEIGHT;
+    public static final long BOARD_MASK = (1L << SQUARES) - 1;
+
+    // Colours. Blue moves first.
+    public static final int BLUE = 0;
+    public static final int RED = 1;
+
+    // Piece types. A piece code is type | (colour << 3), and 0 is an empty square.
+    public static final int EMPTY = 0;
+    public static final int RAM = 1;
+    public static final int TOR = 2;
+    public static final int XOR = 3;
+    public static final int BIZ = 4;
+    public static final int SAU = 5;
+
+    private static final String[] TYPE_NAMES = {"", "Ram", "Tor", "Xor", "Biz", "Sau"};
+    private static final String[] COLOR_NAMES = {"B", "R"};
+
+    // Piece code as read through the Xor/Tor phase, indexed by [phase][code].
+    private static final int[][] PHASED = new int[2][16];
+
+    static {
+        for (int code = 0; code < 16; code++) {
+            PHASED[0][code] = code;
+            int type = code & 7;
+            if (type == TOR) {
+                PHASED[1][code] = (code & ~7) | XOR;
+            } else if (type == XOR) {
+                PHASED[1][code] = (code & ~7) | TOR;
+            } else {
+                PHASED[1][code] = code;
+            }
+        }
+    }
+
+    private final long[] pieces = new long[16]; // Bitboards indexed by base piece code
+    private final long[] colors = new long[2];  // Occupancy of each colour
+    private final byte[] board = new byte[SQUARES]; // Base piece code on every square
+    private long reachedEnd; // Rams that have turned around
+    private int phase;       // 1 while Xor and Tor are swapped
+    private int moveCount = 1; // Odd while Blue is to move, as in KwazamChess
+    // Zobrist key as it would be with the phase off and with the phase on, so that
+    // toggling the phase only has to pick the other one.
+    private final long[] keys = new long[2];
+    // Material and piece-square score, Blue minus Red, likewise under both readings of the phase.
+    private final int[] scores = new int[2];
+
+    /**
+     * Constructs an empty position with Blue to move.
+     */
+    public KwazamPosition() {
+    }
+
+    /**
+     * Constructs a copy of another position.
+     *
+     * @param other The position to copy.
+     */
+    public KwazamPosition(KwazamPosition other) {
+        copyFrom(other);
+    }
+
+    /**
+     * Overwrites this position with the contents of another one.
+     *
+     * @param other The position to copy.
+     */
+    public void copyFrom(KwazamPosition other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.board, 0, board, 0, board.length);
+        reachedEnd = other.reachedEnd;
+        phase = other.phase;
+        moveCount = other.moveCount;
+        keys[0] = other.keys[0];
+        keys[1] = other.keys[1];
+        scores[0] = other.scores[0];
+        scores[1] = other.scores[1];
+    }
+
+    /**
+     * Removes every piece and resets the game state.
+     */
+    public void clear() {
+        java.util.Arrays.fill(pieces, 0L);
+        java.util.Arrays.fill(colors, 0L);
+        java.util.Arrays.fill(board, (byte) EMPTY);
+        reachedEnd = 0L;
+        phase = 0;
+        moveCount = 1;
+        keys[0] = 0L;
+        keys[1] = 0L;
+        scores[0] = 0;
+        scores[1] = 0;
+    }
+
+    // Square and piece code helpers
+
+    public static int square(int row, int col) {
+        return row * WIDTH + col;
+    }
+
+    public static int row(int square) {
+        return square / WIDTH;
+    }
+
+    public static int col(int square) {
+        return square % WIDTH;
+    }
+
+    public static long bit(int square) {
+        return 1L << square;
+    }
+
+    public static int piece(int color, int type) {
+        return type | (color << 3);
+    }
+
+    public static int typeOf(int piece) {
+        return piece & 7;
+    }
+
+    public static int colorOf(int piece) {
+        return piece >>> 3;
+    }
+
+    /**
+     * Reads a piece code through the Xor/Tor phase. Reading twice gives the
+     * code back, so this also turns a piece as it currently plays into its base type.
+     *
+     * @param piece The piece code.
+     * @param phaseFlipped Whether Xor and Tor are swapped.
+     * @return The piece code read through the phase.
+     */
+    public static int phased(int piece, boolean phaseFlipped) {
+        return PHASED[phaseFlipped ? 1 : 0][piece];
+    }
+
+    /**
+     * Looks up a piece type by the name used in the game and save files.
+     *
+     * @param name The piece name, e.g. "Ram".
+     * @return The piece type, or EMPTY if the name is unknown.
+     */
+    public static int typeOf(String name) {
+        for (int type = RAM; type <= SAU; type++) {
+            if (TYPE_NAMES[type].equals(name)) {
+                return type;
+            }
+        }
+        return EMPTY;
+    }
+
+    public static String typeName(int type) {
+        return TYPE_NAMES[type];
+    }
+
+    public static String colorName(int color) {
+        return COLOR_NAMES[color];
+    }
+
+    public static int colorOf(String name) {
+        return name.equals("B") ? BLUE : RED;
+    }
+
+    // Queries
+
+    /**
+     * Gets the piece on a square as it currently plays, with the Xor/Tor phase applied.
+     *
+     * @param square The square index.
+     * @return The piece code, or EMPTY.
+     */
+    public int pieceAt(int square) {
+        return PHASED[phase][board[square]];
+    }
+
+    public boolean isEmpty(int square) {
+        return board[square] == EMPTY;
+    }
+
+    /**
+     * Gets the squares holding a piece as it currently plays.
+     *
+     * @param piece The piece code, with the Xor/Tor phase applied.
+     * @return A bitboard of the squares holding that piece.
+     */
+    public long bitboard(int piece) {
+        return pieces[PHASED[phase][piece]];
+    }
+
+    public long bitboard(int color, int type) {
+        return bitboard(piece(color, type));
+    }
+
+    public long occupancy(int color) {
+        return colors[color];
+    }
+
+    public long occupied() {
+        return colors[BLUE] | colors[RED];
+    }
+
+    public boolean hasReachedEnd(int square) {
+        return (reachedEnd & bit(square)) != 0;
+    }
+
+    public long reachedEndRams() {
+        return reachedEnd;
+    }
+
+    public boolean isPhaseFlipped() {
+        return phase != 0;
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    public void setMoveCount(int moveCount) {
+        if (((this.moveCount ^ moveCount) & 1) != 0) {
+            flipKeys(KwazamZobrist.RED_TO_MOVE);
+        }
+        this.moveCount = moveCount;
+    }
+
+    public int sideToMove() {
+        return (moveCount & 1) == 1 ? BLUE : RED;
+    }
+
+    /**
+     * Gets the Zobrist key of the position. It is kept up to date by every
+     * change to the position, so reading it costs nothing.
+     *
+     * @return The 64-bit position key.
+     */
+    public long key() {
+        return keys[phase];
+    }
+
+    /**
+     * Gets the material and piece-square score of the position, kept up to
+     * date like the key. See KwazamEvaluation.
+     *
+     * @return The score from Blue's point of view.
+     */
+    public int pieceSquareScore() {
+        return scores[phase];
+    }
+
+    // XORs a value into both phase keys.
+    private void flipKeys(long value) {
+        keys[0] ^= value;
+        keys[1] ^= value;
+    }
+
+    // Adds (sign 1) or takes away (sign -1) a base piece on a square in both phase keys and
+    // scores, each under its own reading.
+    private void flipPiece(int base, int square, int sign) {
+        int phased = PHASED[1][base];
+        keys[0] ^= KwazamZobrist.PIECE[base][square];
+        keys[1] ^= KwazamZobrist.PIECE[phased][square];
+        scores[0] += sign * KwazamEvaluation.PIECE_SQUARE[base][square];
+        scores[1] += sign * KwazamEvaluation.PIECE_SQUARE[phased][square];
+    }
+
+    // Turns the end state of a Ram on a square on (sign 1) or off (sign -1) in the keys and
+    // scores. The reachedEnd bits are the caller's to change.
+    private void flipRamEnd(int color, int square, int sign) {
+        flipKeys(KwazamZobrist.RAM_END[square]);
+        int value = sign * KwazamEvaluation.RAM_END[color][square];
+        scores[0] += value;
+        scores[1] += value;
+    }
+
+    // Mutators
+
+    /**
+     * Places a piece on an empty square.
+     *
+     * @param square The square index.
+     * @param piece The piece code as it currently plays.
+     * @param hasReachedEnd Whether the piece is a Ram that has turned around.
+     */
+    public void put(int square, int piece, boolean hasReachedEnd) {
+        if (board[square] != EMPTY) {
+            remove(square);
+        }
+        int base = PHASED[phase][piece];
+        long b = bit(square);
+        pieces[base] |= b;
+        colors[colorOf(base)] |= b;
+        board[square] = (byte) base;
+        flipPiece(base, square, 1);
+        if (hasReachedEnd && typeOf(base) == RAM) {
+            reachedEnd |= b;
+            flipRamEnd(colorOf(base), square, 1);
+        }
+    }
+
+    /**
+     * Removes whatever piece stands on a square.
+     *
+     * @param square The square index.
+     */
+    public void remove(int square) {
+        int base = board[square];
+        if (base == EMPTY) {
+            return;
+        }
+        long b = bit(square);
+        pieces[base] &= ~b;
+        colors[colorOf(base)] &= ~b;
+        board[square] = (byte) EMPTY;
+        flipPiece(base, square, -1);
+        if ((reachedEnd & b) != 0) {
+            reachedEnd &= ~b;
+            flipRamEnd(colorOf(base), square, -1);
+        }
+    }
+
+    /**
+     * Marks the Ram on a square as having reached the opposite end.
+     *
+     * @param square The square index.
+     * @param hasReachedEnd The new end state.
+     */
+    public void setReachedEnd(int square, boolean hasReachedEnd) {
+        boolean reached = hasReachedEnd && typeOf(board[square]) == RAM;
+        if (reached != this.hasReachedEnd(square)) {
+            reachedEnd ^= bit(square);
+            flipRamEnd(colorOf(board[square]), square, reached ? 1 : -1);
+        }
+    }
+
+    /**
+     * Turns every Xor into a Tor and every Tor into a Xor in constant time.
+     */
+    public void togglePhase() {
+        phase ^= 1;
+    }
+
+    /**
+     * Makes a move produced by KwazamMoveGenerator. The move is trusted to be
+     * legal in this position; nothing is allocated and nothing is validated.
+     *
+     * @param move The packed move.
+     */
+    public void makeMove(int move) {
+        int from = KwazamMove.from(move);
+        int to = KwazamMove.to(move);
+        int base = board[from];
+        long fromBit = bit(from);
+        long toBit = bit(to);
+
+        if (board[to] != EMPTY) {
+            int captured = board[to];
+            pieces[captured] &= ~toBit;
+            colors[colorOf(captured)] &= ~toBit;
+            flipPiece(captured, to, -1);
+            if ((reachedEnd & toBit) != 0) {
+                reachedEnd &= ~toBit;
+                flipRamEnd(colorOf(captured), to, -1);
+            }
+        }
+
+        long fromTo = fromBit | toBit;
+        pieces[base] ^= fromTo;
+        colors[colorOf(base)] ^= fromTo;
+        board[to] = (byte) base;
+        board[from] = (byte) EMPTY;
+        flipPiece(base, from, -1);
+        flipPiece(base, to, 1);
+        if ((reachedEnd & fromBit) != 0) {
+            reachedEnd ^= fromTo;
+            flipRamEnd(colorOf(base), from, -1);
+            flipRamEnd(colorOf(base), to, 1);
+        } else if ((move & KwazamMove.REACHES_END) != 0) {
+            reachedEnd |= toBit;
+            flipRamEnd(colorOf(base), to, 1);
+        }
+
+        moveCount++;
+        flipKeys(KwazamZobrist.RED_TO_MOVE);
+        if ((move & KwazamMove.PHASE_CHANGE) != 0) {
+            phase ^= 1;
+        }
+    }
+
+    /**
+     * Takes back a move previously made with makeMove. Moves must be taken
+     * back in the reverse order they were made.
+     *
+     * @param move The packed move.
+     */
+    public void unmakeMove(int move) {
+        int from = KwazamMove.from(move);
+        int to = KwazamMove.to(move);
+
+        if ((move & KwazamMove.PHASE_CHANGE) != 0) {
+            phase ^= 1;
+        }
+        moveCount--;
+        flipKeys(KwazamZobrist.RED_TO_MOVE);
+
+        int base = board[to];
+        long fromBit = bit(from);
+        long toBit = bit(to);
+        long fromTo = fromBit | toBit;
+        if ((move & KwazamMove.REACHES_END) != 0) {
+            reachedEnd &= ~toBit;
+            flipRamEnd(colorOf(base), to, -1);
+        } else if ((reachedEnd & toBit) != 0) {
+            reachedEnd ^= fromTo;
+            flipRamEnd(colorOf(base), to, -1);
+            flipRamEnd(colorOf(base), from, 1);
+        }
+        pieces[base] ^= fromTo;
+        colors[colorOf(base)] ^= fromTo;
+        board[from] = (byte) base;
+        board[to] = (byte) EMPTY;
+        flipPiece(base, from, 1);
+        flipPiece(base, to, -1);
+
+        int captured = KwazamMove.captured(move);
+        if (captured != EMPTY) {
+            int capturedBase = PHASED[phase][captured];
+            pieces[capturedBase] |= toBit;
+            colors[colorOf(capturedBase)] |= toBit;
+            board[to] = (byte) capturedBase;
+            flipPiece(capturedBase, to, 1);
+            if ((move & KwazamMove.CAPTURED_END) != 0) {
+                reachedEnd |= toBit;
+                flipRamEnd(colorOf(capturedBase), to, 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the position as a grid in the same layout as the save files,
+     * with Red's back row first.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                int sq = square(r, c);
+                int p = pieceAt(sq);
+                if (p == EMPTY) {
+                    sb.append("  ----  ");
+                } else {
+                    String name = COLOR_NAMES[colorOf(p)] + TYPE_NAMES[typeOf(p)];
+                    if (hasReachedEnd(sq)) {
+                        name += " (End)";
+                    }
+                    sb.append(String.format("  %-6s", name));
+                }
+            }
+            sb.append('\n');
+        }
+        sb.append("\nPlayer to Move: ").append(COLOR_NAMES[sideToMove()]);
+        sb.append("\nMove Count: ").append(moveCount).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The binary save file of Kwazam Chess.
+ *
+ * A position takes at most 20 bytes: the occupied squares as a 40-bit
+ * mask, a flags byte holding the Xor/Tor phase, the move count (whose parity
+ * gives the side to move), and then one 4-bit code for each occupied square
+ * in square order. The code is the piece's base type and colour as
+ * KwazamPosition keeps them, with the unused type 6 standing for a Ram that
+ * has turned around.
+ *
+ * A file starts with an 8-byte header: magic, format version and flags. The
+ * position saved follows. If the flags say so, the game's start position and
+ * its moves come next, each move as the from and to squares in two bytes.
+ * On loading, the moves are played again from the start position and must
+ * lead to the saved position. Everything is little-endian.
+ *
+ * The padded text grid written by KwazamChess is still available as an export.
+ */
+public final class KwazamSaveFile {
+
+    public static final String EXTENSION = ".ksv";
+
+    static final int MAGIC = 0x3156534B; // "KSV1" when read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int VERSION_OFFSET = 4;
+    static final int FLAGS_OFFSET = 5;
+    static final int HAS_MOVES = 1; // Header flag: the start position and moves follow the position
+    static final int PHASE_FLIPPED = 1; // Position flag: Xor and Tor are swapped
+    static final int TURNED_RAM = 6; // Piece type code of a Ram that has reached the end
+
+    /**
+     * The most bytes a position can take.
+     */
+    public static final int MAX_POSITION_BYTES = 5 + 1 + 4 + KwazamPosition.SQUARES / 2;
+
+    private KwazamSaveFile() {
+    }
+
+    /**
+     * Writes a position.
+     *
+     * @param out The buffer to write to, little-endian, with at least MAX_POSITION_BYTES left.
+     * @param position The position.
+     */
+    public static void writePosition(ByteBuffer out, KwazamPosition position) {
+        long occupied = position.occupied();
+        for (int i = 0; i < 5; i++) {
+            out.put((byte) (occupied >>> (8 * i)));
+        }
+        boolean phaseFlipped = position.isPhaseFlipped();
+        out.put((byte) (phaseFlipped ? PHASE_FLIPPED : 0));
+        out.putInt(position.getMoveCount());
+        int pending = -1; // A code waiting for its byte's high half
+        while (occupied != 0) {
+            int square = Long.numberOfTrailingZeros(occupied);
+            occupied &= occupied - 1;
+            int base = KwazamPosition.phased(position.pieceAt(square), phaseFlipped);
+            int code = position.hasReachedEnd(square) ? (base & ~7) | TURNED_RAM : base;
+            if (pending < 0) {
+                pending = code;
+            } else {
+                out.put((byte) (pending | code << 4));
+                pending = -1;
+            }
+        }
+        if (pending >= 0) {
+            out.put((byte) pending);
+        }
+    }
+
+    /**
+     * Reads a position written by writePosition.
+     *
+     * @param in The buffer to read from, little-endian.
+     * @return The position.
+     * @throws IOException If the bytes are not a position.
+     */
+    public static KwazamPosition readPosition(ByteBuffer in) throws IOException {
+        try {
+            long occupied = 0;
+            for (int i = 0; i < 5; i++) {
+                occupied |= (in.get() & 0xFFL) << (8 * i);
+            }
+            if ((occupied & ~KwazamPosition.BOARD_MASK) != 0) {
+                throw new IOException("Pieces off the board");
+            }
+            int flags = in.get();
+            int moveCount = in.getInt();
+            if (moveCount < 1) {
+                throw new IOException("Bad move count " + moveCount);
+            }
+            KwazamPosition position = new KwazamPosition();
+            boolean phaseFlipped = (flags & PHASE_FLIPPED) != 0;
+            if (phaseFlipped) {
+                position.togglePhase();
+            }
+            position.setMoveCount(moveCount);
+            int packed = 0;
+            int index = 0;
+            while (occupied != 0) {
+                int square = Long.numberOfTrailingZeros(occupied);
+                occupied &= occupied - 1;
+                if ((index & 1) == 0) {
+                    packed = in.get();
+                }
+                int code = (packed >>> (4 * (index & 1))) & 15;
+                index++;
+                int type = code & 7;
+                if (type == KwazamPosition.EMPTY || type > TURNED_RAM) {
+                    throw new IOException("Bad piece code " + code + " on " + KwazamMove.squareName(square));
+                }
+                boolean turned = type == TURNED_RAM;
+                int base = turned ? (code & ~7) | KwazamPosition.RAM : code;
+                position.put(square, KwazamPosition.phased(base, phaseFlipped), turned);
+            }
+            return position;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The position is cut short");
+        }
+    }
+
+    /**
+     * Gets the most bytes a save file with some moves can take.
+     *
+     * @param moveCount The number of moves, or -1 for none saved.
+     * @return The size in bytes.
+     */
+    public static int maxBytes(int moveCount) {
+        return HEADER_BYTES + MAX_POSITION_BYTES + (moveCount < 0 ? 0 : MAX_POSITION_BYTES + 4 + 2 * moveCount);
+    }
+
+    /**
+     * Writes the contents of a save file: a position, and optionally the moves that led to it.
+     *
+     * @param out The buffer to write to, little-endian, with at least maxBytes(moves.length) left.
+     * @param position The position.
+     * @param moves The packed moves that were made to reach the position, oldest first, or null.
+     */
+    public static void write(ByteBuffer out, KwazamPosition position, int[] moves) {
+        out.putInt(MAGIC).put((byte) VERSION).put((byte) (moves == null ? 0 : HAS_MOVES)).putShort((short) 0);
+        writePosition(out, position);
+        if (moves != null) {
+            KwazamPosition start = new KwazamPosition(position);
+            for (int i = moves.length - 1; i >= 0; i--) {
+                start.unmakeMove(moves[i]);
+            }
+            writePosition(out, start);
+            out.putInt(moves.length);
+            for (int move : moves) {
+                out.putShort(packSquares(move));
+            }
+        }
+    }
+
+    /**
+     * Packs the from and to squares of a move into two bytes, as save files keep moves.
+     *
+     * @param move The packed move.
+     * @return The from square in the low six bits and the to square in the next six.
+     */
+    public static short packSquares(int move) {
+        return (short) (KwazamMove.from(move) | KwazamMove.to(move) << 6);
+    }
+
+    /**
+     * Saves a position, and optionally the moves that led to it.
+     *
+     * @param file The file, replaced if it exists.
+     * @param position The position.
+     * @param moves The packed moves that were made to reach the position, oldest first, or null.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(File file, KwazamPosition position, int[] moves) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(maxBytes(moves == null ? -1 : moves.length)).order(ByteOrder.LITTLE_ENDIAN);
+        write(out, position, moves);
+        // Write next to the file and move it into place, so a failed save leaves the old one whole
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            stream.write(out.array(), 0, out.position());
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Saves a game, with its moves.
+     *
+     * @param file The file, replaced if it exists.
+     * @param game The game.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(File file, KwazamGame game) throws IOException {
+        save(file, game.getPosition(), game.getMoves());
+    }
+
+    /**
+     * Loads a save file as a game. If the file holds moves the game starts
+     * from the start position and has them played, so they can be taken back.
+     *
+     * @param file The save file.
+     * @return The game.
+     * @throws IOException If the file cannot be read or is not a valid save file.
+     */
+    public static KwazamGame load(File file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return read(in);
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a save file's contents as a game.
+     *
+     * @param in The contents, little-endian.
+     * @return The game.
+     * @throws IOException If the contents are not a valid save file.
+     */
+    public static KwazamGame read(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_BYTES || in.getInt(in.position()) != MAGIC) {
+            throw new IOException("Not a Kwazam save file");
+        }
+        int version = in.get(in.position() + VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new IOException("Unsupported save file version " + version);
+        }
+        int flags = in.get(in.position() + FLAGS_OFFSET);
+        in.position(in.position() + HEADER_BYTES);
+        KwazamPosition position = readPosition(in);
+        if ((flags & HAS_MOVES) == 0) {
+            return new KwazamGame(position);
+        }
+        KwazamGame game = new KwazamGame(readPosition(in));
+        try {
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                if (!submitSquares(game, in.getShort())) {
+                    throw new IOException("Move " + (i + 1) + " is illegal or off the board");
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The moves are cut short");
+        }
+        if (game.getPosition().key() != position.key() || game.getPosition().getMoveCount() != position.getMoveCount()) {
+            throw new IOException("The moves do not lead to the saved position");
+        }
+        return game;
+    }
+
+    /**
+     * Plays a move packed by packSquares.
+     *
+     * @param game The game.
+     * @param squares The packed squares.
+     * @return Whether the move was on the board, legal and played.
+     */
+    public static boolean submitSquares(KwazamGame game, short squares) {
+        int from = squares & 63;
+        int to = (squares >>> 6) & 63;
+        return from < KwazamPosition.SQUARES && to < KwazamPosition.SQUARES && game.submitMove(from, to);
+    }
+
+    /**
+     * Checks whether a file is a binary save file, by its name.
+     */
+    public static boolean isSaveFile(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+}
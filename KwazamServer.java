@@ -0,0 +1,427 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts many Kwazam Chess games at once over TCP, without a window.
+ *
+ * Clients speak a line protocol, one ASCII command per line, and get one
+ * reply line per command:
+ *
+ *   NEW                 OK id                     starts a game
+ *   MOVE id c2c3        OK id c2c3 result         plays a move
+ *   STATE id            OK id side result moves   the side to move, e.g. B, and the moves so far
+ *   LEGAL id            OK id moves               the legal moves of the side to move
+ *   WATCH id            OK id                     then EVENT id move result after every move
+ *   CLOSE id            OK id                     ends a game and forgets it
+ *   PING                PONG
+ *   QUIT                BYE                       closes the connection
+ *
+ * The result is "*" while the game goes on, else "1-0", "0-1" or
+ * "1/2-1/2". A command that fails gets "ERR" and a reason instead.
+ *
+ * Every connection is served by its own thread, a virtual thread where the
+ * Java runtime has them, which blocks on its socket, so a connection costs
+ * little while idle. Games are kept in a KwazamGameRegistry and locked one at
+ * a time, so moves in different games never wait for each other.
+ *
+ * With a journal directory every game keeps a KwazamJournal there, named by
+ * its id, and the games in it are picked up again, ids and all, when the
+ * server starts.
+ */
+public class KwazamServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 7070;
+    public static final int DEFAULT_SHARDS = 64;
+
+    private final KwazamGameRegistry registry;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newConnectionExecutor("KwazamServer connection");
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong commandCount = new AtomicLong();
+    private final Map<Long, KwazamJournal> journals = new ConcurrentHashMap<>();
+    private File journalDirectory; // Null if games are kept in memory only
+    private String journalOptions;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the server socket. Nothing is served until start() is called.
+     *
+     * @param address The address to listen on, e.g. the loopback address.
+     * @param port The port, or 0 for any free port.
+     * @param registry The games to serve.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public KwazamServer(InetAddress address, int port, KwazamGameRegistry registry) throws IOException {
+        this.registry = registry;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(address, port), 4096);
+    }
+
+    /**
+     * Makes an executor that runs every task on a thread of its own: a virtual
+     * thread if the Java runtime has them (Java 21 and later), else a daemon
+     * platform thread that is kept for a while to be reused.
+     *
+     * @param name The name of the platform threads.
+     * @return The executor.
+     */
+    static ExecutorService newConnectionExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(null, runnable, name, 256 * 1024); // Small stacks, for many connections
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Keeps a journal of every game in a directory, starting with the games
+     * whose journals are there already. Call it before start().
+     *
+     * @param directory The directory, made if need be.
+     * @param options When the journals force their moves to the disk, as KwazamJournal.open takes them.
+     * @return The number of games recovered.
+     * @throws IOException If the directory cannot be used.
+     */
+    public int useJournals(File directory, String options) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot make the journal directory " + directory);
+        }
+        journalDirectory = directory;
+        journalOptions = options;
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(KwazamJournal.EXTENSION));
+        int recovered = 0;
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(0, name.length() - KwazamJournal.EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                continue; // Not one of ours
+            }
+            try {
+                KwazamGame game = KwazamJournal.recover(file);
+                journals.put(id, KwazamJournal.open(file, game, options));
+                registry.put(id, game);
+                recovered++;
+            } catch (IOException e) {
+                KwazamLog.log(KwazamLog.ERROR, "Cannot recover game " + id, e);
+            }
+        }
+        return recovered;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public KwazamGameRegistry getRegistry() {
+        return registry;
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * Starts accepting connections on a thread of its own.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::acceptConnections, "KwazamServer acceptor");
+        acceptor.start();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true); // Replies are small and wanted at once
+                openSockets.add(socket);
+                connectionCount.incrementAndGet();
+                connections.execute(new Connection(socket));
+            } catch (IOException e) {
+                if (running) {
+                    KwazamLog.log(KwazamLog.WARN, "Cannot accept a connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the ones open.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            socket.close(); // Wakes its thread out of reading
+        }
+        connections.shutdownNow();
+        for (Map.Entry<Long, KwazamJournal> entry : journals.entrySet()) {
+            KwazamGame game = registry.get(entry.getKey());
+            synchronized (game == null ? entry.getValue() : game) {
+                entry.getValue().close(); // The games are kept for the next start
+            }
+        }
+        journals.clear();
+    }
+
+    /**
+     * One client. Its thread reads commands and writes the replies; other
+     * connections' threads may write events to it while it waits. A watcher
+     * that stops reading will in time hold up the games it watches.
+     */
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private Writer out;
+        private final Map<Long, KwazamGame.Listener> watching = new HashMap<>(); // Used by its own thread only
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII))) {
+                out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    commandCount.incrementAndGet();
+                    String reply = handle(line.trim());
+                    send(reply);
+                    if (reply.equals("BYE")) {
+                        break;
+                    }
+                }
+            } catch (SocketException e) {
+                // The client went away
+            } catch (IOException e) {
+                KwazamLog.log(KwazamLog.WARN, "Connection failed", e);
+            } finally {
+                stopWatching();
+                openSockets.remove(socket);
+            }
+        }
+
+        private void send(String line) throws IOException {
+            synchronized (this) {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            }
+        }
+
+        private String handle(String line) {
+            String[] words = line.split(" +");
+            String command = words[0].toUpperCase();
+            switch (command) {
+                case "NEW":
+                    return create();
+                case "PING":
+                    return "PONG";
+                case "QUIT":
+                    return "BYE";
+                case "MOVE":
+                case "STATE":
+                case "LEGAL":
+                case "WATCH":
+                case "CLOSE":
+                    break;
+                default:
+                    return "ERR unknown command " + words[0];
+            }
+            if (words.length < 2 || (command.equals("MOVE") && words.length < 3)) {
+                return "ERR missing arguments to " + command;
+            }
+            long id;
+            try {
+                id = Long.parseLong(words[1]);
+            } catch (NumberFormatException e) {
+                return "ERR bad game id " + words[1];
+            }
+            KwazamGame game = command.equals("CLOSE") ? registry.remove(id) : registry.get(id);
+            if (game == null) {
+                return "ERR " + id + " no such game";
+            }
+            synchronized (game) {
+                switch (command) {
+                    case "MOVE":
+                        return move(game, id, words[2]);
+                    case "STATE":
+                        return state(game, id);
+                    case "LEGAL":
+                        return legal(game, id);
+                    case "WATCH":
+                        return watch(game, id);
+                    default: // CLOSE
+                        forget(id);
+                        return "OK " + id;
+                }
+            }
+        }
+
+        private String create() {
+            KwazamGame game = new KwazamGame();
+            synchronized (game) { // Held until the journal listens, so no move is missed
+                long id = registry.add(game);
+                if (journalDirectory != null) {
+                    try {
+                        journals.put(id, KwazamJournal.open(new File(journalDirectory, id + KwazamJournal.EXTENSION),
+                                game, journalOptions));
+                    } catch (IOException e) {
+                        registry.remove(id);
+                        KwazamLog.log(KwazamLog.ERROR, "Cannot start the journal of game " + id, e);
+                        return "ERR cannot keep a journal";
+                    }
+                }
+                return "OK " + id;
+            }
+        }
+
+        // Called holding the game's lock, after the game was removed from the registry
+        private void forget(long id) {
+            KwazamJournal journal = journals.remove(id);
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    KwazamLog.log(KwazamLog.WARN, "Cannot close the journal of game " + id, e);
+                }
+                if (!journal.getFile().delete()) {
+                    KwazamLog.log(KwazamLog.WARN, "Cannot delete %s", journal.getFile());
+                }
+            }
+        }
+
+        // Called holding the game's lock, like the other commands on a game
+        private String move(KwazamGame game, long id, String text) {
+            if (game.isOver()) {
+                return "ERR " + id + " game over " + game.getResult().getText();
+            }
+            if (!game.submitMove(text)) {
+                return "ERR " + id + " illegal move " + text;
+            }
+            return "OK " + id + " " + text + " " + game.getResult().getText();
+        }
+
+        private String state(KwazamGame game, long id) {
+            StringBuilder sb = new StringBuilder("OK ").append(id).append(' ')
+                    .append(KwazamPosition.colorName(game.getSideToMove())).append(' ')
+                    .append(game.getResult().getText());
+            for (int move : game.getMoves()) {
+                sb.append(' ').append(KwazamMove.toString(move));
+            }
+            return sb.toString();
+        }
+
+        private String legal(KwazamGame game, long id) {
+            StringBuilder sb = new StringBuilder("OK ").append(id);
+            for (int move : game.getLegalMoves()) {
+                sb.append(' ').append(KwazamMove.toString(move));
+            }
+            return sb.toString();
+        }
+
+        private String watch(KwazamGame game, long id) {
+            if (!watching.containsKey(id)) {
+                KwazamGame.Listener listener = new KwazamGame.Listener() {
+                    @Override
+                    public void moveMade(KwazamGame g, int move) {
+                        event(id, move, g.getResult());
+                    }
+                };
+                game.addListener(listener);
+                watching.put(id, listener);
+            }
+            return "OK " + id;
+        }
+
+        // Runs on the thread of whichever connection made the move
+        private void event(long id, int move, KwazamGame.Result result) {
+            try {
+                send("EVENT " + id + " " + KwazamMove.toString(move) + " " + result.getText());
+            } catch (IOException e) {
+                // This connection is closing and will stop watching
+            }
+        }
+
+        private void stopWatching() {
+            for (Map.Entry<Long, KwazamGame.Listener> entry : watching.entrySet()) {
+                KwazamGame game = registry.get(entry.getKey());
+                if (game != null) {
+                    synchronized (game) {
+                        game.removeListener(entry.getValue());
+                    }
+                }
+            }
+            watching.clear();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int shards = DEFAULT_SHARDS;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        File journalDirectory = null;
+        String journalOptions = "millis=100,snapshot=64"; // Many games: force in batches, not per move
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-shards")) {
+                shards = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-host")) {
+                address = InetAddress.getByName(args[++i]);
+            } else if (args[i].equals("-journal")) {
+                journalDirectory = new File(args[++i]);
+            } else if (args[i].equals("-sync")) {
+                journalOptions = args[++i];
+            } else {
+                System.out.println("Usage: java KwazamServer [-host address] [-port n] [-shards n] [-journal directory] [-sync options]");
+                return;
+            }
+        }
+        KwazamServer server = new KwazamServer(address, port, new KwazamGameRegistry(shards));
+        if (journalDirectory != null) {
+            System.out.println("Recovered " + server.useJournals(journalDirectory, journalOptions) + " games");
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close(); // Forces the journals' last moves to the disk
+            } catch (IOException e) {
+                KwazamLog.log(KwazamLog.ERROR, "Cannot close the server", e);
+            }
+        }, "KwazamServer close"));
+        System.out.println("Serving Kwazam Chess on " + address.getHostAddress() + ":" + server.getPort());
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Endgame tablebases for Kwazam Chess: the exact outcome, with perfect play,
+ * of every position with a given set of pieces, as written by
+ * KwazamTablebaseGenerator. Each file is memory-mapped read-only, so a probe
+ * is an index computation and one read, and the operating system shares the
+ * pages between every engine and GUI that has the same files open.
+ *
+ * One table covers one material signature, e.g. BSau and BTor against RSau.
+ * It holds one short per position: positive for a win of the side to move in
+ * that many plies, negative for a loss in that many plies, and 0 for a draw.
+ * A side that cannot move draws, as in the search.
+ *
+ * A position is indexed by the square of every piece in signature order, the
+ * turned-around state of every Ram, the Xor/Tor phase and the side to move.
+ * Pieces are stored by base type, as in KwazamPosition, so the same Xor and
+ * Tor are found in both phases. Of two identical pieces the one on the lower
+ * square always comes first.
+ */
+public class KwazamTablebase implements Closeable {
+
+    public static final String EXTENSION = ".ktb";
+    // Returned by probe() when no table covers the position.
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    static final int MAGIC = 0x3142544B; // "KTB1" when read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int MAX_SLOTS = 12;
+    // Header layout: magic, version, number of pieces, their base codes, then the longest distance.
+    static final int VERSION_OFFSET = 4;
+    static final int COUNT_OFFSET = 5;
+    static final int SLOTS_OFFSET = 6;
+    static final int DISTANCE_OFFSET = SLOTS_OFFSET + MAX_SLOTS;
+
+    // The pieces other than the Saus, whose counts make up a signature key.
+    private static final int[] KEY_CODES = new int[8];
+
+    static {
+        for (int i = 0; i < 8; i++) {
+            KEY_CODES[i] = KwazamPosition.piece(i >> 2, KwazamPosition.RAM + (i & 3));
+        }
+    }
+
+    private final List<RandomAccessFile> files = new ArrayList<>();
+    private final int[] keys;            // Signature keys, sorted
+    private final Signature[] signatures; // Matching the keys
+    private final ByteBuffer[] tables;    // Matching the keys
+    private final int maxPieces;
+    private final int maxDistance;
+
+    /**
+     * Maps every table file in a directory.
+     *
+     * @param directory The directory holding the .ktb files.
+     * @throws IOException If a file cannot be mapped or is not a tablebase.
+     */
+    public KwazamTablebase(File directory) throws IOException {
+        File[] found = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (found == null) {
+            throw new FileNotFoundException("No tablebase directory " + directory);
+        }
+        Arrays.sort(found);
+        Signature[] loaded = new Signature[found.length];
+        ByteBuffer[] mapped = new ByteBuffer[found.length];
+        int pieces = 0;
+        int distance = 0;
+        try {
+            for (int i = 0; i < found.length; i++) {
+                RandomAccessFile file = new RandomAccessFile(found[i], "r");
+                files.add(file);
+                FileChannel channel = file.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                loaded[i] = readHeader(buffer, found[i]);
+                mapped[i] = buffer;
+                pieces = Math.max(pieces, loaded[i].slots.length);
+                distance = Math.max(distance, buffer.getShort(DISTANCE_OFFSET));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        // Sort by key so that a probe finds its table by binary search
+        Integer[] order = new Integer[found.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(loaded[a].key, loaded[b].key));
+        keys = new int[found.length];
+        signatures = new Signature[found.length];
+        tables = new ByteBuffer[found.length];
+        for (int i = 0; i < order.length; i++) {
+            signatures[i] = loaded[order[i]];
+            tables[i] = mapped[order[i]];
+            keys[i] = signatures[i].key;
+        }
+        maxPieces = pieces;
+        maxDistance = distance;
+    }
+
+    private static Signature readHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a Kwazam tablebase: " + file);
+        }
+        if (buffer.get(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported tablebase version " + buffer.get(VERSION_OFFSET) + ": " + file);
+        }
+        int count = buffer.get(COUNT_OFFSET);
+        if (count < 2 || count > MAX_SLOTS) {
+            throw new IOException("Corrupt tablebase header: " + file);
+        }
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = buffer.get(SLOTS_OFFSET + i);
+        }
+        Signature signature = new Signature(slots);
+        if (buffer.capacity() != HEADER_BYTES + 2 * signature.size) {
+            throw new IOException("Tablebase " + file + " has the wrong size for " + signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Looks up the outcome of a position.
+     *
+     * @param position The position.
+     * @return Plies to a win for the side to move if positive, plies to a loss
+     * if negative, 0 for a draw, or NOT_FOUND if no table covers the position.
+     */
+    public int probe(KwazamPosition position) {
+        int i = Arrays.binarySearch(keys, keyOf(position));
+        if (i < 0 || Long.bitCount(position.occupied()) != signatures[i].slots.length) {
+            return NOT_FOUND; // No such table, or a Sau is missing
+        }
+        return tables[i].getShort(HEADER_BYTES + 2 * (int) signatures[i].index(position));
+    }
+
+    /**
+     * Picks the move that wins fastest, loses slowest or keeps the draw.
+     *
+     * @param position The position, restored before returning.
+     * @return The packed move, or KwazamMove.NONE if the side to move has no
+     * moves or a position after a move is not covered.
+     */
+    public int bestMove(KwazamPosition position) {
+        int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+        int count = KwazamMoveGenerator.generate(position, moves);
+        int bestMove = KwazamMove.NONE;
+        int bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (KwazamPosition.typeOf(KwazamMove.captured(moves[i])) == KwazamPosition.SAU) {
+                return moves[i];
+            }
+            position.makeMove(moves[i]);
+            int value = probe(position);
+            position.unmakeMove(moves[i]);
+            if (value == NOT_FOUND) {
+                return KwazamMove.NONE;
+            }
+            // From the opponent's point of view: its quickest loss first, then draws, then its slowest win
+            int rank = value < 0 ? Short.MAX_VALUE + value : value == 0 ? 0 : -Short.MAX_VALUE + value;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = moves[i];
+            }
+        }
+        return bestMove;
+    }
+
+    public int getTableCount() {
+        return tables.length;
+    }
+
+    /**
+     * Gets the most pieces, Saus included, of any table, so that callers can
+     * skip probing bigger positions.
+     */
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Gets the longest win or loss, in plies, of any table.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Unmaps nothing, as Java cannot unmap a buffer, but closes every file;
+     * the mappings go when the buffers are collected.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (RandomAccessFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        files.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // The count of every piece type apart from the Sau, four bits each.
+    static int keyOf(KwazamPosition position) {
+        boolean flipped = position.isPhaseFlipped();
+        int key = 0;
+        for (int i = 0; i < KEY_CODES.length; i++) {
+            key |= Long.bitCount(position.bitboard(KwazamPosition.phased(KEY_CODES[i], flipped))) << (4 * i);
+        }
+        return key;
+    }
+
+    /**
+     * A material signature: the base codes of its pieces in ascending order,
+     * both Saus included, and how its positions are indexed.
+     */
+    static final class Signature {
+        final int[] slots;
+        final int rams; // Pieces that are Rams, each with a turned-around bit in the index
+        final long size;
+        final int key;
+
+        Signature(int[] slots) {
+            this.slots = slots.clone();
+            Arrays.sort(this.slots);
+            int ramCount = 0;
+            int signatureKey = 0;
+            for (int code : this.slots) {
+                if (KwazamPosition.typeOf(code) == KwazamPosition.RAM) {
+                    ramCount++;
+                }
+                if (KwazamPosition.typeOf(code) != KwazamPosition.SAU) {
+                    int type = KwazamPosition.typeOf(code) - KwazamPosition.RAM;
+                    signatureKey += 1 << (4 * (KwazamPosition.colorOf(code) * 4 + type));
+                }
+            }
+            long positions = 1;
+            for (int i = 0; i < this.slots.length; i++) {
+                positions *= KwazamPosition.SQUARES;
+            }
+            this.rams = ramCount;
+            this.size = (positions << ramCount) * 4; // Both phases, both sides to move
+            this.key = signatureKey;
+        }
+
+        /**
+         * Computes the index of a position with exactly these pieces.
+         */
+        long index(KwazamPosition position) {
+            boolean flipped = position.isPhaseFlipped();
+            long index = 0;
+            int ends = 0;
+            for (int i = 0; i < slots.length; ) {
+                int code = slots[i];
+                long squares = position.bitboard(KwazamPosition.phased(code, flipped));
+                while (squares != 0) {
+                    int sq = Long.numberOfTrailingZeros(squares);
+                    squares &= squares - 1;
+                    index = index * KwazamPosition.SQUARES + sq;
+                    if (KwazamPosition.typeOf(code) == KwazamPosition.RAM) {
+                        ends = (ends << 1) | (position.hasReachedEnd(sq) ? 1 : 0);
+                    }
+                    i++;
+                }
+            }
+            index = (index << rams) | ends;
+            index = (index << 1) | (flipped ? 1 : 0);
+            return (index << 1) | position.sideToMove();
+        }
+
+        /**
+         * Sets up the position with an index.
+         *
+         * @return false if the index is not that of a position that can arise:
+         * two pieces on one square, identical pieces out of order, or a Ram on
+         * a row it can never stand on in its state.
+         */
+        boolean decode(long index, KwazamPosition position) {
+            int side = (int) (index & 1);
+            boolean flipped = ((index >>> 1) & 1) != 0;
+            int ends = (int) ((index >>> 2) & ((1 << rams) - 1));
+            long squares = index >>> (2 + rams);
+
+            position.clear();
+            if (flipped) {
+                position.togglePhase();
+            }
+            position.setMoveCount(side == KwazamPosition.BLUE ? 1 : 2);
+            int later = KwazamPosition.SQUARES; // Square of the next slot, for the order of identical pieces
+            for (int i = slots.length - 1; i >= 0; i--) {
+                int sq = (int) (squares % KwazamPosition.SQUARES);
+                squares /= KwazamPosition.SQUARES;
+                int code = slots[i];
+                if (!position.isEmpty(sq) || (i + 1 < slots.length && slots[i + 1] == code && sq > later)) {
+                    return false;
+                }
+                later = sq;
+                boolean ended = false;
+                if (KwazamPosition.typeOf(code) == KwazamPosition.RAM) {
+                    ended = (ends & 1) != 0;
+                    ends >>>= 1;
+                    int color = KwazamPosition.colorOf(code);
+                    long b = KwazamPosition.bit(sq);
+                    // A Ram never goes back to its own back row, and turns around on reaching the far row
+                    if ((KwazamMoveGenerator.farRow(1 - color) & b) != 0
+                            || (!ended && (KwazamMoveGenerator.farRow(color) & b) != 0)) {
+                        return false;
+                    }
+                }
+                position.put(sq, KwazamPosition.phased(code, flipped), ended);
+            }
+            return true;
+        }
+
+        /**
+         * Gets the file name of the table, e.g. BSau-BTor-RSau.ktb.
+         */
+        String fileName() {
+            return this + EXTENSION;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int code : slots) {
+                if (sb.length() > 0) {
+                    sb.append('-');
+                }
+                sb.append(KwazamPosition.colorName(KwazamPosition.colorOf(code)))
+                        .append(KwazamPosition.typeName(KwazamPosition.typeOf(code)));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java KwazamTablebase directory [saveFile]");
+            return;
+        }
+        try (KwazamTablebase tablebase = new KwazamTablebase(new File(args[0]))) {
+            System.out.println(tablebase.getTableCount() + " tables, up to " + tablebase.getMaxPieces()
+                    + " pieces, longest result " + tablebase.getMaxDistance() + " plies");
+            if (args.length < 2) {
+                return;
+            }
+            KwazamPosition position = KwazamPerft.loadPosition(new File(args[1]));
+            System.out.println(position);
+            int value = tablebase.probe(position);
+            if (value == NOT_FOUND) {
+                System.out.println("Not in the tablebase");
+            } else if (value == 0) {
+                System.out.println("Draw");
+            } else {
+                System.out.println((value > 0 ? "Win in " : "Loss in ") + Math.abs(value) + " plies");
+            }
+            if (value != NOT_FOUND) {
+                System.out.println("Best move: " + KwazamMove.toString(tablebase.bestMove(position)));
+            }
+        }
+    }
+}
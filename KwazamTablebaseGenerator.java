@@ -0,0 +1,429 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates the endgame tables read by KwazamTablebase.
+ *
+ * Every table is solved by retrograde analysis in passes, one ply of distance
+ * per pass: the first pass finds the positions where the side to move can
+ * capture the Sau, every odd pass after it the positions with a move into a
+ * loss found so far, and every even pass the positions whose moves all lead
+ * into wins found so far. Whatever is still open once a pass finds nothing
+ * new, and no capture into a smaller table can still decide it, is a draw.
+ *
+ * A position decided in one pass marks the positions that may lead into it,
+ * by taking the last move back loosely, and only those are looked at again
+ * in the next pass. The looking itself makes the moves forwards, so the Ram
+ * turn-around and the Xor/Tor transformation are exactly as the move
+ * generator plays them: the phase is part of every position, and a Blue move
+ * leads into the position of the other phase.
+ *
+ * A capture leads into a table with one piece fewer, so tables are generated
+ * from the fewest pieces up and the smaller ones are probed from their files.
+ * Every pass is split over a fork-join pool; a pass only ever writes results
+ * of its own distance and only reads shorter ones, so the threads never need
+ * to agree on anything but the end of the pass.
+ *
+ * Usage: java KwazamTablebaseGenerator directory [-pieces n] [-threads n]
+ */
+public class KwazamTablebaseGenerator {
+
+    // Positions handled by one task without splitting further.
+    private static final int CHUNK = 1 << 14;
+    // Marks an index that is not a position, which is written out as a draw.
+    private static final short INVALID = Short.MIN_VALUE;
+    // How many of each piece type a side can have, indexed by type.
+    private static final int[] TYPE_LIMITS = {0, 5, 1, 1, 2, 1};
+
+    private final File directory;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a generator.
+     *
+     * @param directory The directory to write the tables into, created if missing.
+     * @param pool The pool to solve every pass on.
+     */
+    public KwazamTablebaseGenerator(File directory, ForkJoinPool pool) {
+        this.directory = directory;
+        this.pool = pool;
+    }
+
+    /**
+     * Generates every table with up to a number of pieces, Saus included,
+     * that is not already in the directory. Tables too big for one file are
+     * skipped.
+     *
+     * @param maxPieces The most pieces in a table, at least 2.
+     * @throws IOException If a table cannot be written or read back.
+     */
+    public void generateAll(int maxPieces) throws IOException {
+        for (KwazamTablebase.Signature signature : signatures(maxPieces)) {
+            if (new File(directory, signature.fileName()).exists()) {
+                System.out.println(signature + ": already generated");
+                continue;
+            }
+            if (!fits(signature)) {
+                System.out.println(signature + ": too big for one table, skipped");
+                continue;
+            }
+            generate(signature);
+        }
+    }
+
+    /**
+     * Solves one table and writes it out. Every table with one piece fewer
+     * must already be in the directory.
+     *
+     * @param signature The pieces of the table.
+     * @throws IOException If the table cannot be written.
+     * @throws IllegalArgumentException If the table is too big for one file.
+     */
+    public void generate(KwazamTablebase.Signature signature) throws IOException {
+        if (!fits(signature)) {
+            throw new IllegalArgumentException(signature + " is too big for one table");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        long start = System.nanoTime();
+        Solution solution = new Solution(signature);
+        try (KwazamTablebase smaller = new KwazamTablebase(directory)) {
+            long resolved = pool.invoke(new PassTask(solution, smaller, 1, 0, solution.values.length));
+            int lastWake = 0;
+            for (short wake : solution.wake) {
+                lastWake = Math.max(lastWake, wake);
+            }
+            for (int pass = 2; resolved > 0 || pass <= lastWake; pass++) {
+                if (pass >= Short.MAX_VALUE) {
+                    throw new IllegalStateException(signature + " has results too long to store");
+                }
+                resolved = pool.invoke(new PassTask(solution, smaller, pass, 0, solution.values.length));
+            }
+        }
+        write(signature, solution.values, start);
+    }
+
+    // Whether the table's file can be mapped as one buffer
+    private static boolean fits(KwazamTablebase.Signature signature) {
+        return KwazamTablebase.HEADER_BYTES + 2 * signature.size <= Integer.MAX_VALUE;
+    }
+
+    // Writes a solved table to a temporary file first, so that an interrupted run leaves no half-written table.
+    private void write(KwazamTablebase.Signature signature, short[] values, long start) throws IOException {
+        long wins = 0;
+        long losses = 0;
+        long draws = 0;
+        int longest = 0;
+        for (short value : values) {
+            if (value == INVALID) {
+                continue;
+            }
+            if (value > 0) {
+                wins++;
+            } else if (value < 0) {
+                losses++;
+            } else {
+                draws++;
+            }
+            longest = Math.max(longest, Math.abs(value));
+        }
+
+        File target = new File(directory, signature.fileName());
+        File temporary = new File(directory, signature.fileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(KwazamTablebase.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, KwazamTablebase.MAGIC);
+            header.put(KwazamTablebase.VERSION_OFFSET, (byte) KwazamTablebase.VERSION);
+            header.put(KwazamTablebase.COUNT_OFFSET, (byte) signature.slots.length);
+            for (int i = 0; i < signature.slots.length; i++) {
+                header.put(KwazamTablebase.SLOTS_OFFSET + i, (byte) signature.slots[i]);
+            }
+            header.putShort(KwazamTablebase.DISTANCE_OFFSET, (short) longest);
+            writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (short value : values) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+                buffer.putShort(value == INVALID ? 0 : value);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+        if ((target.exists() && !target.delete()) || !temporary.renameTo(target)) {
+            throw new IOException("Cannot rename " + temporary + " to " + target);
+        }
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        System.out.printf("%s: %d positions, %d wins, %d losses, %d draws, longest %d plies, %d ms%n",
+                signature, wins + losses + draws, wins, losses, draws, longest, elapsed);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Lists every material signature with up to a number of pieces, the
+     * smaller ones first, so that each table comes after those its captures lead into.
+     *
+     * @param maxPieces The most pieces, Saus included.
+     * @return The signatures.
+     */
+    public static List<KwazamTablebase.Signature> signatures(int maxPieces) {
+        List<int[]> sides = new ArrayList<>();
+        addSides(new int[0], KwazamPosition.RAM, Math.max(0, maxPieces - 2), sides);
+        List<KwazamTablebase.Signature> signatures = new ArrayList<>();
+        for (int[] blue : sides) {
+            for (int[] red : sides) {
+                if (blue.length + red.length > maxPieces - 2) {
+                    continue;
+                }
+                int[] slots = new int[blue.length + red.length + 2];
+                int n = 0;
+                slots[n++] = KwazamPosition.piece(KwazamPosition.BLUE, KwazamPosition.SAU);
+                slots[n++] = KwazamPosition.piece(KwazamPosition.RED, KwazamPosition.SAU);
+                for (int type : blue) {
+                    slots[n++] = KwazamPosition.piece(KwazamPosition.BLUE, type);
+                }
+                for (int type : red) {
+                    slots[n++] = KwazamPosition.piece(KwazamPosition.RED, type);
+                }
+                signatures.add(new KwazamTablebase.Signature(slots));
+            }
+        }
+        signatures.sort(Comparator.comparingInt((KwazamTablebase.Signature s) -> s.slots.length)
+                .thenComparing(KwazamTablebase.Signature::toString));
+        return signatures;
+    }
+
+    // Adds every set of non-Sau piece types one side can have, in ascending type order.
+    private static void addSides(int[] types, int fromType, int maxSize, List<int[]> sides) {
+        sides.add(types);
+        if (types.length == maxSize) {
+            return;
+        }
+        for (int type = fromType; type < KwazamPosition.SAU; type++) {
+            int same = 0;
+            for (int t : types) {
+                if (t == type) {
+                    same++;
+                }
+            }
+            if (same < TYPE_LIMITS[type]) {
+                int[] more = java.util.Arrays.copyOf(types, types.length + 1);
+                more[types.length] = type;
+                addSides(more, type, maxSize, sides);
+            }
+        }
+    }
+
+    /**
+     * The results of a table while it is being solved.
+     */
+    private static class Solution {
+        final KwazamTablebase.Signature signature;
+        final short[] values;
+        // The last pass in which a capture into a smaller table can decide each position.
+        final short[] wake;
+        // Positions with a move into a position decided in the last pass, one array per parity of the pass.
+        final byte[][] dirty;
+
+        Solution(KwazamTablebase.Signature signature) {
+            this.signature = signature;
+            int size = (int) signature.size;
+            values = new short[size];
+            wake = new short[size];
+            dirty = new byte[2][size];
+        }
+    }
+
+    /**
+     * Resolves the open positions of one range of a table for one pass,
+     * splitting the range while it is big. The first pass looks at every
+     * position; later ones only at those with a move into a position decided
+     * in the pass before, or a capture whose result in the smaller table may
+     * still decide them.
+     */
+    private static class PassTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Solution solution;
+        private final KwazamTablebase smaller;
+        private final int pass;
+        private final int from;
+        private final int to;
+        private final KwazamPosition scratch = new KwazamPosition();
+
+        PassTask(Solution solution, KwazamTablebase smaller, int pass, int from, int to) {
+            this.solution = solution;
+            this.smaller = smaller;
+            this.pass = pass;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                PassTask left = new PassTask(solution, smaller, pass, from, middle);
+                left.fork();
+                long right = new PassTask(solution, smaller, pass, middle, to).compute();
+                return right + left.join();
+            }
+            short[] values = solution.values;
+            byte[] dirty = solution.dirty[pass & 1];
+            KwazamPosition position = new KwazamPosition();
+            int[] moves = new int[KwazamMoveGenerator.MAX_MOVES];
+            long resolved = 0;
+            for (int i = from; i < to; i++) {
+                boolean open = pass == 1 || dirty[i] != 0 || solution.wake[i] >= pass;
+                dirty[i] = 0;
+                if (!open || values[i] != 0) {
+                    continue; // Nothing new to learn, already solved, or not a position
+                }
+                if (!solution.signature.decode(i, position)) {
+                    values[i] = INVALID; // Only found in the first pass, as the rest skip it
+                    continue;
+                }
+                int value = resolve(position, moves, i);
+                if (value != 0) {
+                    values[i] = (short) value;
+                    resolved++;
+                    markPredecessors(position);
+                }
+            }
+            return resolved;
+        }
+
+        // The result of a position if this pass decides it, or 0.
+        private int resolve(KwazamPosition position, int[] moves, int index) {
+            int count = KwazamMoveGenerator.generate(position, moves);
+            if (count == 0) {
+                return 0; // Nothing can move: a draw
+            }
+            boolean winPass = (pass & 1) == 1;
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                if (KwazamPosition.typeOf(KwazamMove.captured(move)) == KwazamPosition.SAU) {
+                    return pass == 1 ? 1 : 0; // Taken in the first pass; afterwards the position is never open
+                }
+                int value = childValue(position, move);
+                if (pass == 1) {
+                    if (KwazamMove.isCapture(move)) {
+                        solution.wake[index] = (short) Math.max(solution.wake[index], Math.abs(value) + 1);
+                    }
+                } else if (winPass) {
+                    if (value < 0 && -value < pass) {
+                        return pass; // A move into a lost position
+                    }
+                } else if (value <= 0 || value >= pass) {
+                    return 0; // A move that does not lose yet
+                }
+            }
+            return winPass ? 0 : -pass;
+        }
+
+        // The result of the position after a move, for the opponent, from this table or a smaller one.
+        private int childValue(KwazamPosition position, int move) {
+            position.makeMove(move);
+            int value;
+            if (KwazamMove.isCapture(move)) {
+                value = smaller.probe(position);
+                if (value == KwazamTablebase.NOT_FOUND) {
+                    position.unmakeMove(move);
+                    throw new IllegalStateException("Missing table for " + position + " after " + KwazamMove.toString(move));
+                }
+            } else {
+                value = solution.values[(int) solution.signature.index(position)];
+            }
+            position.unmakeMove(move);
+            return value;
+        }
+
+        /**
+         * Marks every open position of the table that may have a move into a
+         * position just decided, for the next pass to look at. Moves are taken
+         * back loosely, from every square the piece could have come from in
+         * either Ram state; a position marked without such a move is looked
+         * at for nothing, and one that cannot arise is skipped.
+         */
+        private void markPredecessors(KwazamPosition position) {
+            byte[] next = solution.dirty[(pass + 1) & 1];
+            int mover = 1 - position.sideToMove();
+            boolean flipped = position.isPhaseFlipped();
+            boolean moverFlipped = flipped ^ (mover == KwazamPosition.BLUE); // Blue's moves change the phase
+            long occupied = position.occupied();
+            long pieces = position.occupancy(mover);
+            while (pieces != 0) {
+                int to = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                int base = KwazamPosition.phased(position.pieceAt(to), flipped);
+                int piece = KwazamPosition.phased(base, moverFlipped); // As it played on the move
+                long origins = KwazamPosition.typeOf(piece) == KwazamPosition.RAM
+                        ? KwazamMoveGenerator.ramAttacks(mover, to, false) | KwazamMoveGenerator.ramAttacks(1 - mover, to, false)
+                        : KwazamMoveGenerator.attacks(piece, to, occupied, false);
+                origins &= ~occupied;
+                if (origins == 0) {
+                    continue;
+                }
+
+                scratch.copyFrom(position);
+                scratch.remove(to);
+                scratch.setMoveCount(mover == KwazamPosition.BLUE ? 1 : 2);
+                if (scratch.isPhaseFlipped() != moverFlipped) {
+                    scratch.togglePhase();
+                }
+                while (origins != 0) {
+                    int from = Long.numberOfTrailingZeros(origins);
+                    origins &= origins - 1;
+                    for (int ended = 0; ended <= (KwazamPosition.typeOf(piece) == KwazamPosition.RAM ? 1 : 0); ended++) {
+                        scratch.put(from, piece, ended == 1);
+                        int index = (int) solution.signature.index(scratch);
+                        if (solution.values[index] == 0) {
+                            next[index] = 1;
+                        }
+                        scratch.remove(from);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java KwazamTablebaseGenerator directory [-pieces n] [-threads n]");
+            return;
+        }
+        File directory = new File(args[0]);
+        int pieces = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-pieces")) {
+                pieces = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        long start = System.nanoTime();
+        new KwazamTablebaseGenerator(directory, new ForkJoinPool(threads)).generateAll(pieces);
+        System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads the text save files written by KwazamChess.save straight into a
+ * position, working on the bytes.
+ *
+ * A text save file has eight rows of five squares, seen from the side of the
+ * player to move, then the player to move and the move count:
+ *
+ *   RTor    RBiz    RSau    RBiz    RXor
+ *   RRam    ----    BRam (End)  ...
+ *   ...
+ *
+ *   Player to Move: B
+ *   Move Count: 13
+ *
+ * Squares are separated by two or more spaces; a Ram that has turned around
+ * has " (End)" after its name. Lines may end with CR LF or LF. Any mistake is
+ * reported with its line and column.
+ *
+ * A parser keeps a buffer for reading files and the squares of the grid
+ * until it knows which way round the grid is, so reading many files with one
+ * parser allocates little more than the positions. A parser is not
+ * thread-safe.
+ */
+public class KwazamTextSaveParser {
+
+    private static final int MAP_THRESHOLD = 1 << 16; // Larger files are mapped rather than read
+    private static final byte[][] NAMES = new byte[PieceType.values().length][]; // By type number - 1
+    private static final byte[] EMPTY_SQUARE = ascii("----");
+    private static final byte[] END_MARK = ascii("(End)");
+    private static final byte[] PLAYER_TO_MOVE = ascii("Player to Move:");
+    private static final byte[] MOVE_COUNT = ascii("Move Count:");
+
+    static {
+        for (PieceType type : PieceType.values()) {
+            NAMES[type.code() - 1] = ascii(type.getName());
+        }
+    }
+
+    /**
+     * A text save file that does not follow the format, with where it goes wrong.
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int line;
+        private final int column;
+
+        FormatException(String source, int line, int column, String reason) {
+            super((source == null ? "" : source + ":") + line + ":" + column + ": " + reason);
+            this.line = line;
+            this.column = column;
+        }
+
+        /**
+         * Gets the line the mistake is on, counting from 1.
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Gets the column of the mistake in its line, counting from 1.
+         */
+        public int getColumn() {
+            return column;
+        }
+    }
+
+    private final int[] grid = new int[KwazamPosition.SQUARES]; // Piece codes as read, in reading order
+    private final boolean[] turned = new boolean[KwazamPosition.SQUARES];
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+    // The input being parsed
+    private ByteBuffer in;
+    private String source;
+    private int line;
+    private int lineStart;
+
+    /**
+     * Parses the contents of a text save file.
+     *
+     * @param in The contents, from its position to its limit; the position is moved to the limit.
+     * @param position The position to set up, cleared first.
+     * @throws FormatException If the contents do not follow the format.
+     */
+    public void parse(ByteBuffer in, KwazamPosition position) throws FormatException {
+        parse(in, position, null);
+    }
+
+    /**
+     * Reads a text save file, mapping it into memory if it is large.
+     *
+     * @param file The file.
+     * @param position The position to set up, cleared first.
+     * @throws IOException If the file cannot be read; a FormatException if it does not follow the format.
+     */
+    public void read(File file, KwazamPosition position) throws IOException {
+        ByteBuffer contents;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                if (readBuffer.capacity() < size) {
+                    readBuffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) * 2);
+                }
+                readBuffer.clear();
+                while (readBuffer.position() < size && channel.read(readBuffer) >= 0) {
+                    // Keep reading until the whole file is in
+                }
+                readBuffer.flip();
+                contents = readBuffer;
+            }
+        }
+        parse(contents, position, file.getPath());
+    }
+
+    /**
+     * Reads every text save file (*.txt) in a directory, e.g. for batch
+     * analysis. A file that cannot be read or parsed is handed to the error
+     * handler and the rest are still read.
+     *
+     * @param directory The directory.
+     * @param positions Called with each file and its position; the position is the caller's to keep.
+     * @param errors Called with each file that failed and why.
+     * @return The number of positions read.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public int readDirectory(File directory, BiConsumer<File, KwazamPosition> positions,
+                             BiConsumer<File, IOException> errors) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        int count = 0;
+        for (File file : files) {
+            KwazamPosition position = new KwazamPosition();
+            try {
+                read(file, position);
+            } catch (IOException e) {
+                errors.accept(file, e);
+                continue;
+            }
+            positions.accept(file, position);
+            count++;
+        }
+        return count;
+    }
+
+    private void parse(ByteBuffer contents, KwazamPosition position, String name) throws FormatException {
+        in = contents;
+        source = name;
+        line = 1;
+        lineStart = in.position();
+        try {
+            for (int row = 0; row < KwazamPosition.HEIGHT; row++) {
+                if (!in.hasRemaining()) {
+                    throw error("Expected row " + (row + 1) + " of the board, found the end of the file");
+                }
+                parseRow(row);
+            }
+            parseState(position);
+        } finally {
+            in = null; // Not to keep a mapped file alive
+        }
+    }
+
+    // One row of the grid: five squares, then the end of the line
+    private void parseRow(int row) throws FormatException {
+        for (int col = 0; col < KwazamPosition.WIDTH; col++) {
+            int spaces = skipSpaces();
+            if (atLineEnd()) {
+                throw error("Expected " + KwazamPosition.WIDTH + " squares in the row, found " + col);
+            }
+            if (col > 0 && spaces < 2) {
+                throw error("Expected two or more spaces between squares");
+            }
+            int index = row * KwazamPosition.WIDTH + col;
+            turned[index] = false;
+            if (match(EMPTY_SQUARE)) {
+                grid[index] = KwazamPosition.EMPTY;
+                continue;
+            }
+            int color = in.get(in.position());
+            if (color != 'B' && color != 'R') {
+                throw error("Expected B, R or ---- for a square");
+            }
+            in.get();
+            int type = matchName();
+            if (type == KwazamPosition.EMPTY) {
+                throw error("Expected a piece name");
+            }
+            grid[index] = KwazamPosition.piece(color == 'B' ? KwazamPosition.BLUE : KwazamPosition.RED, type);
+            // " (End)" after a piece, with a single space
+            if (in.remaining() > 1 && in.get(in.position()) == ' ' && in.get(in.position() + 1) == '(') {
+                in.get();
+                if (!match(END_MARK)) {
+                    throw error("Expected (End)");
+                }
+                turned[index] = true;
+            }
+        }
+        skipSpaces();
+        if (!atLineEnd()) {
+            throw error("Expected the end of the row after " + KwazamPosition.WIDTH + " squares");
+        }
+        nextLine();
+    }
+
+    // The lines after the grid; then the grid is placed the right way round
+    private void parseState(KwazamPosition position) throws FormatException {
+        int side = -1;
+        int moveCount = 0;
+        while (in.hasRemaining()) {
+            skipSpaces();
+            if (match(PLAYER_TO_MOVE)) {
+                skipSpaces();
+                int color = in.hasRemaining() ? in.get(in.position()) : -1;
+                if (color != 'B' && color != 'R') {
+                    throw error("Expected B or R for the player to move");
+                }
+                in.get();
+                side = color == 'B' ? KwazamPosition.BLUE : KwazamPosition.RED;
+            } else if (match(MOVE_COUNT)) {
+                skipSpaces();
+                moveCount = parseNumber();
+            }
+            skipSpaces();
+            if (!atLineEnd()) {
+                throw error("Expected Player to Move, Move Count or an empty line");
+            }
+            nextLine();
+        }
+        if (side < 0) {
+            throw error("No Player to Move line");
+        }
+        if (moveCount == 0) {
+            moveCount = side == KwazamPosition.BLUE ? 1 : 2;
+        }
+        // Otherwise the move count says whose turn it is. Exports of a finished game made
+        // before the side to move was written name the winner here, with the grid in their view.
+
+        // The rows were written from the side of the player to move: turn Red's view around
+        position.clear();
+        position.setMoveCount(moveCount);
+        for (int index = 0; index < KwazamPosition.SQUARES; index++) {
+            if (grid[index] != KwazamPosition.EMPTY) {
+                int square = side == KwazamPosition.RED ? KwazamPosition.SQUARES - 1 - index : index;
+                position.put(square, grid[index], turned[index]);
+            }
+        }
+    }
+
+    private int parseNumber() throws FormatException {
+        int value = 0;
+        int digits = 0;
+        while (in.hasRemaining()) {
+            int b = in.get(in.position());
+            if (b < '0' || b > '9') {
+                break;
+            }
+            if (value > (Integer.MAX_VALUE - 9) / 10) {
+                throw error("Number too large");
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            in.get();
+        }
+        if (digits == 0 || value < 1) {
+            throw error("Expected a move count of 1 or more");
+        }
+        return value;
+    }
+
+    // Matches the piece names, returning the type number, or EMPTY if none is next
+    private int matchName() {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (match(NAMES[i])) {
+                return i + 1;
+            }
+        }
+        return KwazamPosition.EMPTY;
+    }
+
+    // Moves past the bytes if they are next
+    private boolean match(byte[] bytes) {
+        int at = in.position();
+        if (in.limit() - at < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (in.get(at + i) != bytes[i]) {
+                return false;
+            }
+        }
+        in.position(at + bytes.length);
+        return true;
+    }
+
+    private int skipSpaces() {
+        int count = 0;
+        while (in.hasRemaining() && (in.get(in.position()) == ' ' || in.get(in.position()) == '\t')) {
+            in.get();
+            count++;
+        }
+        return count;
+    }
+
+    private boolean atLineEnd() {
+        if (!in.hasRemaining()) {
+            return true;
+        }
+        int b = in.get(in.position());
+        return b == '\n' || b == '\r';
+    }
+
+    // Moves past CR LF, LF or a lone CR
+    private void nextLine() {
+        if (in.hasRemaining() && in.get(in.position()) == '\r') {
+            in.get();
+        }
+        if (in.hasRemaining() && in.get(in.position()) == '\n') {
+            in.get();
+        }
+        line++;
+        lineStart = in.position();
+    }
+
+    private FormatException error(String reason) {
+        return new FormatException(source, line, in.position() - lineStart + 1, reason);
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads every text save file in a directory and reports how long it took.
+     *
+     * Usage: java KwazamTextSaveParser directory
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java KwazamTextSaveParser directory");
+            return;
+        }
+        long[] keys = new long[1];
+        int[] errors = new int[1];
+        long start = System.nanoTime();
+        int count = new KwazamTextSaveParser().readDirectory(new File(args[0]),
+                (file, position) -> keys[0] ^= position.key(),
+                (file, e) -> {
+                    errors[0]++;
+                    System.out.println(e.getMessage());
+                });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d positions, %d errors in %.3f s (%.0f files/s)%n",
+                count, errors[0], seconds, (count + errors[0]) / seconds);
+    }
+}
@@ -0,0 +1,589 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a match between two engine players, many games at a time.
+ *
+ * Games start from the starting position, from the openings of a record
+ * file, or after a few random moves. Every opening is played twice, with
+ * the players swapping colours, so neither gets the better side of it more
+ * often. Each worker thread plays one game at a time with single-threaded
+ * engines of its own. A game is drawn on a threefold repetition or when it
+ * reaches the ply limit.
+ *
+ * With a sequential probability ratio test the match stops as soon as the
+ * results show that the first player is elo1 stronger than the second
+ * rather than only elo0, or the other way round, at the given error rates.
+ */
+public class KwazamTournament {
+
+    public static final int DEFAULT_MAX_PLIES = 200;
+
+    private final Contestant first;
+    private final Contestant second;
+    private final List<int[]> openings = new ArrayList<>();
+    private int randomPlies = 0;
+    private int maxPlies = DEFAULT_MAX_PLIES;
+    private long seed = 1;
+    private Sprt sprt;
+    private PrintWriter records;
+    private int reportInterval = 0;
+
+    private final Score score = new Score();
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * @param first The player whose strength is being measured.
+     * @param second The player it is measured against.
+     */
+    public KwazamTournament(Contestant first, Contestant second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Adds an opening, played from the starting position.
+     *
+     * @param moves The packed moves of the opening.
+     */
+    public void addOpening(int[] moves) {
+        openings.add(moves);
+    }
+
+    /**
+     * Adds the openings of a record file: the moves of each line, up to a
+     * number of plies. Lines that end before it are used as they are.
+     *
+     * @param recordFile The record file, as read by KwazamBookBuilder.
+     * @param plies The most moves of each line to use.
+     * @return The number of openings added.
+     * @throws IOException If the file cannot be read or holds an illegal move.
+     */
+    public int addOpenings(File recordFile, int plies) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(recordFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                KwazamGame game = new KwazamGame();
+                for (String token : line.split("\\s+")) {
+                    if (game.getMoveCount() == plies || isResult(token)) {
+                        break;
+                    }
+                    if (!game.submitMove(token)) {
+                        throw new IOException(recordFile + ":" + lineNumber + ": illegal move " + token);
+                    }
+                }
+                addOpening(game.getMoves());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isResult(String token) {
+        for (KwazamGame.Result result : KwazamGame.Result.values()) {
+            if (result.getText().equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets how many random moves to play after the opening, e.g. to start
+     * every pair of games from a different position when there are no openings.
+     */
+    public void setRandomPlies(int randomPlies) {
+        this.randomPlies = randomPlies;
+    }
+
+    /**
+     * Sets the number of plies after which a game is called a draw.
+     */
+    public void setMaxPlies(int maxPlies) {
+        this.maxPlies = maxPlies;
+    }
+
+    /**
+     * Sets the seed of the random moves, so a match can be played again.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the test that decides when the match may stop, or null to play every game.
+     */
+    public void setSprt(Sprt sprt) {
+        this.sprt = sprt;
+    }
+
+    /**
+     * Sets where to write a record line for every game, or null for nowhere.
+     * Records start from the starting position, opening moves included.
+     */
+    public void setRecords(PrintWriter records) {
+        this.records = records;
+    }
+
+    /**
+     * Sets after how many games to print the standing, or 0 for never.
+     */
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public Score getScore() {
+        return score;
+    }
+
+    /**
+     * Plays the match.
+     *
+     * @param games The most games to play, rounded up to whole pairs.
+     * @param threads The number of games played at once.
+     * @return The score of the first player.
+     */
+    public Score run(int games, int threads) throws Exception {
+        int total = (games + 1) / 2 * 2;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                KwazamEngine firstEngine = null;
+                KwazamEngine secondEngine = null;
+                try {
+                    firstEngine = first.newEngine();
+                    secondEngine = second.newEngine();
+                    int game;
+                    while (!stopped.get() && (game = nextGame.getAndIncrement()) < total) {
+                        play(game, firstEngine, secondEngine);
+                    }
+                } finally {
+                    Contestant.release(firstEngine);
+                    Contestant.release(secondEngine);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return score;
+    }
+
+    // Plays one game. Game 2n and 2n + 1 share an opening, with the first player Blue in the even one.
+    private void play(int number, KwazamEngine firstEngine, KwazamEngine secondEngine) throws IOException {
+        int pair = number / 2;
+        boolean firstIsBlue = number % 2 == 0;
+        KwazamGame game = new KwazamGame();
+        if (!openings.isEmpty()) {
+            for (int move : openings.get(pair % openings.size())) {
+                game.submitMove(move);
+            }
+        }
+        Random random = new Random(seed * 1_000_003L + pair); // Both games of a pair get the same moves
+        for (int ply = 0; ply < randomPlies && !game.isOver(); ply++) {
+            int[] moves = game.getLegalMoves();
+            game.submitMove(moves[random.nextInt(moves.length)]);
+        }
+
+        firstEngine.clear();
+        secondEngine.clear();
+        Map<Long, Integer> seen = new HashMap<>();
+        seen.put(game.getPosition().key(), 1); // The position the engines start from counts too
+        boolean repeated = false;
+        while (!game.isOver() && game.getMoveCount() < maxPlies && !repeated) {
+            boolean blueToMove = game.getSideToMove() == KwazamPosition.BLUE;
+            Contestant contestant = blueToMove == firstIsBlue ? first : second;
+            KwazamEngine engine = blueToMove == firstIsBlue ? firstEngine : secondEngine;
+            int move = engine.search(game.getPosition(), contestant.depth, contestant.millis).getMove();
+            if (!game.submitMove(move)) {
+                throw new IllegalStateException(contestant.name + " played an illegal move " + KwazamMove.toString(move));
+            }
+            repeated = seen.merge(game.getPosition().key(), 1, Integer::sum) == 3;
+        }
+
+        KwazamGame.Result result = game.getResult();
+        int blueScore = result == KwazamGame.Result.BLUE_WINS ? KwazamBookBuilder.BLUE_WINS
+                : result == KwazamGame.Result.RED_WINS ? KwazamBookBuilder.RED_WINS : KwazamBookBuilder.DRAW;
+        int firstScore = firstIsBlue ? blueScore : 2 - blueScore;
+        finish(game.getMoves(), blueScore, firstScore);
+    }
+
+    private synchronized void finish(int[] moves, int blueScore, int firstScore) {
+        if (records != null) {
+            records.println(KwazamBookBuilder.formatRecord(moves, blueScore));
+            records.flush();
+        }
+        score.add(firstScore);
+        if (reportInterval > 0 && score.getGames() % reportInterval == 0) {
+            System.out.println(standing());
+        }
+        if (sprt != null && sprt.decide(score) != 0) {
+            stopped.set(true);
+        }
+    }
+
+    /**
+     * Describes the match so far, with the test's verdict if it has one.
+     */
+    public synchronized String standing() {
+        String text = first.name + " vs " + second.name + ": " + score;
+        if (sprt != null) {
+            text += String.format(", LLR %.2f (%.2f, %.2f)", sprt.logLikelihoodRatio(score),
+                    sprt.getLowerBound(), sprt.getUpperBound());
+            int decision = sprt.decide(score);
+            if (decision != 0) {
+                text += decision > 0 ? ", H1 accepted" : ", H0 accepted";
+            }
+        }
+        return text;
+    }
+
+    /**
+     * One side of the match: how deep and how long its engine searches, and
+     * which book and tables it uses.
+     */
+    public static class Contestant {
+        private final String name;
+        private int depth = KwazamEngine.MAX_PLY;
+        private long millis = 0;
+        private int hashMegabytes = 16;
+        private File bookFile;
+        private File tablebaseDirectory;
+
+        public Contestant(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Parses a contestant from settings such as "depth=6,time=100,hash=16,book=Book.kbk,tablebase=Tablebases".
+         *
+         * @param name The name shown in the results.
+         * @param settings The settings, separated by commas.
+         * @return The contestant.
+         * @throws IllegalArgumentException If a setting is unknown or it sets no depth or time.
+         */
+        public static Contestant parse(String name, String settings) {
+            Contestant contestant = new Contestant(name);
+            for (String setting : settings.split(",")) {
+                String[] parts = setting.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Bad player setting: " + setting);
+                }
+                switch (parts[0].trim()) {
+                    case "depth":
+                        contestant.depth = Integer.parseInt(parts[1].trim());
+                        break;
+                    case "time":
+                        contestant.millis = Long.parseLong(parts[1].trim());
+                        break;
+                    case "hash":
+                        contestant.hashMegabytes = Integer.parseInt(parts[1].trim());
+                        break;
+                    case "book":
+                        contestant.bookFile = new File(parts[1].trim());
+                        break;
+                    case "tablebase":
+                        contestant.tablebaseDirectory = new File(parts[1].trim());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown player setting: " + parts[0]);
+                }
+            }
+            if (contestant.depth >= KwazamEngine.MAX_PLY && contestant.millis == 0) {
+                throw new IllegalArgumentException("Player " + name + " needs a depth or a time");
+            }
+            return contestant;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // An engine with a book and tables of its own, to be released when the worker is done with it
+        KwazamEngine newEngine() throws IOException {
+            KwazamEngine engine = new KwazamEngine(hashMegabytes);
+            try {
+                if (bookFile != null) {
+                    engine.setBook(new KwazamBook(bookFile));
+                }
+                if (tablebaseDirectory != null) {
+                    engine.setTablebase(new KwazamTablebase(tablebaseDirectory));
+                }
+            } catch (IOException e) {
+                release(engine);
+                throw e;
+            }
+            return engine;
+        }
+
+        // Closes the files of an engine made by newEngine; null is ignored
+        static void release(KwazamEngine engine) throws IOException {
+            if (engine == null) {
+                return;
+            }
+            try {
+                if (engine.getBook() != null) {
+                    engine.getBook().close();
+                }
+            } finally {
+                if (engine.getTablebase() != null) {
+                    engine.getTablebase().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The games won, drawn and lost by one player.
+     */
+    public static class Score {
+        private int wins;
+        private int draws;
+        private int losses;
+
+        /**
+         * Counts a game.
+         *
+         * @param halfPoints 2 for a win, 1 for a draw, 0 for a loss.
+         */
+        public synchronized void add(int halfPoints) {
+            if (halfPoints == 2) {
+                wins++;
+            } else if (halfPoints == 1) {
+                draws++;
+            } else {
+                losses++;
+            }
+        }
+
+        public synchronized int getWins() {
+            return wins;
+        }
+
+        public synchronized int getDraws() {
+            return draws;
+        }
+
+        public synchronized int getLosses() {
+            return losses;
+        }
+
+        public synchronized int getGames() {
+            return wins + draws + losses;
+        }
+
+        /**
+         * Gets the share of the points won, from 0 to 1.
+         */
+        public synchronized double getScore() {
+            int games = getGames();
+            return games == 0 ? 0.5 : (wins + draws / 2.0) / games;
+        }
+
+        /**
+         * Gets the variance of the points of one game.
+         */
+        public synchronized double getVariance() {
+            int games = getGames();
+            if (games == 0) {
+                return 0;
+            }
+            double s = getScore();
+            return (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / games;
+        }
+
+        /**
+         * Gets the Elo difference the score stands for.
+         */
+        public double getElo() {
+            return elo(getScore());
+        }
+
+        /**
+         * Gets the half width of the 95% confidence interval of getElo().
+         */
+        public synchronized double getEloError() {
+            int games = getGames();
+            if (games == 0) {
+                return 0;
+            }
+            double margin = 1.96 * Math.sqrt(getVariance() / games);
+            return (elo(getScore() + margin) - elo(getScore() - margin)) / 2;
+        }
+
+        static double elo(double score) {
+            score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+            return 400 * Math.log10(score / (1 - score));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d games +%d -%d =%d, score %.1f%%, Elo %+.1f +/- %.1f",
+                    getGames(), wins, losses, draws, 100 * getScore(), getElo(), getEloError());
+        }
+    }
+
+    /**
+     * A sequential probability ratio test of H0: the Elo difference is elo0,
+     * against H1: it is elo1, using the normal approximation of the
+     * generalised test on the win, draw and loss counts.
+     */
+    public static class Sprt {
+        private final double elo0;
+        private final double elo1;
+        private final double lowerBound;
+        private final double upperBound;
+
+        /**
+         * @param elo0 The Elo difference of H0.
+         * @param elo1 The Elo difference of H1, above elo0.
+         * @param alpha The chance of accepting H1 when H0 holds.
+         * @param beta The chance of accepting H0 when H1 holds.
+         */
+        public Sprt(double elo0, double elo1, double alpha, double beta) {
+            this.elo0 = elo0;
+            this.elo1 = elo1;
+            lowerBound = Math.log(beta / (1 - alpha));
+            upperBound = Math.log((1 - beta) / alpha);
+        }
+
+        public double getLowerBound() {
+            return lowerBound;
+        }
+
+        public double getUpperBound() {
+            return upperBound;
+        }
+
+        /**
+         * Gets the log-likelihood ratio of H1 against H0 for a score.
+         */
+        public double logLikelihoodRatio(Score score) {
+            int games = score.getGames();
+            double variance = score.getVariance();
+            if (games == 0 || variance == 0) {
+                return 0; // Nothing is known until the results differ
+            }
+            double s0 = expectedScore(elo0);
+            double s1 = expectedScore(elo1);
+            return games * (s1 - s0) * (2 * score.getScore() - s0 - s1) / (2 * variance);
+        }
+
+        /**
+         * Decides the test.
+         *
+         * @return 1 if H1 is accepted, -1 if H0 is accepted, 0 if more games are needed.
+         */
+        public int decide(Score score) {
+            double llr = logLikelihoodRatio(score);
+            return llr >= upperBound ? 1 : llr <= lowerBound ? -1 : 0;
+        }
+
+        static double expectedScore(double elo) {
+            return 1 / (1 + Math.pow(10, -elo / 400));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String firstSettings = null;
+        String secondSettings = null;
+        int games = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File openingFile = null;
+        int openingPlies = KwazamBookBuilder.DEFAULT_PLIES;
+        int randomPlies = -1;
+        int maxPlies = DEFAULT_MAX_PLIES;
+        double[] sprtArgs = null;
+        File recordFile = null;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-first")) {
+                firstSettings = args[++i];
+            } else if (args[i].equals("-second")) {
+                secondSettings = args[++i];
+            } else if (args[i].equals("-games")) {
+                games = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-openings")) {
+                openingFile = new File(args[++i]);
+            } else if (args[i].equals("-opening-plies")) {
+                openingPlies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-random")) {
+                randomPlies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-plies")) {
+                maxPlies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-sprt")) {
+                sprtArgs = new double[] {Double.parseDouble(args[++i]), Double.parseDouble(args[++i]), 0.05, 0.05};
+            } else if (args[i].equals("-alpha") && sprtArgs != null) {
+                sprtArgs[2] = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-beta") && sprtArgs != null) {
+                sprtArgs[3] = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-records")) {
+                recordFile = new File(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                firstSettings = null;
+                break;
+            }
+        }
+        if (firstSettings == null || secondSettings == null) {
+            System.out.println("Usage: java KwazamTournament -first settings -second settings [-games n] [-threads n]");
+            System.out.println("       [-openings recordFile] [-opening-plies n] [-random n] [-plies n] [-seed n]");
+            System.out.println("       [-sprt elo0 elo1 [-alpha a] [-beta b]] [-records recordFile]");
+            System.out.println("Settings are e.g. depth=6,time=100,hash=16,book=Book.kbk,tablebase=Tablebases");
+            return;
+        }
+
+        KwazamTournament tournament = new KwazamTournament(Contestant.parse("first", firstSettings),
+                Contestant.parse("second", secondSettings));
+        if (openingFile != null) {
+            System.out.println(tournament.addOpenings(openingFile, openingPlies) + " openings");
+        }
+        // Without openings, every pair of games needs some random moves to differ from the others
+        tournament.setRandomPlies(randomPlies >= 0 ? randomPlies : openingFile == null ? 4 : 0);
+        tournament.setMaxPlies(maxPlies);
+        tournament.setSeed(seed);
+        if (sprtArgs != null) {
+            tournament.setSprt(new Sprt(sprtArgs[0], sprtArgs[1], sprtArgs[2], sprtArgs[3]));
+        }
+        tournament.setReportInterval(Math.max(2, threads * 2));
+
+        long start = System.nanoTime();
+        try (PrintWriter records = recordFile == null ? null : new PrintWriter(new FileWriter(recordFile, true))) {
+            tournament.setRecords(records);
+            tournament.run(games, threads);
+        }
+        System.out.println(tournament.standing());
+        System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Zobrist keys for Kwazam Chess positions.
+ * A position key is the XOR of one random number for every piece on its square,
+ * one for every Ram that has turned around, and one when Red is to move.
+ * Pieces are keyed by the type they currently play as, so the Xor/Tor phase is
+ * part of the key, and two positions that look and play the same always share a key.
+ *
+ * The numbers come from a fixed seed, so keys are the same on every run and
+ * can be stored in files.
+ */
+public final class KwazamZobrist {
+
+    private static final long SEED = 0x4B77617A616DL; // "Kwazam"
+
+    static final long[][] PIECE = new long[16][KwazamPosition.SQUARES];
+    static final long[] RAM_END = new long[KwazamPosition.SQUARES];
+    static final long RED_TO_MOVE;
+
+    static {
+        long state = SEED;
+        for (int piece = 0; piece < 16; piece++) {
+            int type = KwazamPosition.typeOf(piece);
+            for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+                state += 0x9E3779B97F4A7C15L;
+                // Empty squares and unused codes contribute nothing
+                PIECE[piece][sq] = type >= KwazamPosition.RAM && type <= KwazamPosition.SAU ? mix(state) : 0L;
+            }
+        }
+        for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+            state += 0x9E3779B97F4A7C15L;
+            RAM_END[sq] = mix(state);
+        }
+        state += 0x9E3779B97F4A7C15L;
+        RED_TO_MOVE = mix(state);
+    }
+
+    private KwazamZobrist() {
+    }
+
+    // SplitMix64 finaliser
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Computes the key of a position from scratch. The position keeps its own
+     * key up to date as it changes; this is for checking and for positions
+     * built by other means.
+     *
+     * @param position The position.
+     * @return The 64-bit position key.
+     */
+    public static long computeKey(KwazamPosition position) {
+        long key = 0L;
+        for (int sq = 0; sq < KwazamPosition.SQUARES; sq++) {
+            key ^= PIECE[position.pieceAt(sq)][sq];
+            if (position.hasReachedEnd(sq)) {
+                key ^= RAM_END[sq];
+            }
+        }
+        if (position.sideToMove() == KwazamPosition.RED) {
+            key ^= RED_TO_MOVE;
+        }
+        return key;
+    }
+}
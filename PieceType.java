@@ -0,0 +1,73 @@
+/**
+ * The five kinds of Kwazam Chess piece. Rules compare these instead of
+ * piece names; the names are only used for display, icons and save files.
+ */
+public enum PieceType {
+    RAM("Ram"),
+    TOR("Tor"),
+    XOR("Xor"),
+    BIZ("Biz"),
+    SAU("Sau");
+
+    private static final PieceType[] BY_CODE = {null, RAM, TOR, XOR, BIZ, SAU};
+
+    private final String name;
+
+    PieceType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name used in the game and save files, e.g. "Ram".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the type number used by KwazamPosition, e.g. KwazamPosition.RAM.
+     */
+    public int code() {
+        return ordinal() + 1;
+    }
+
+    /**
+     * Reads the type through the Xor/Tor phase: while the phase is on a Xor
+     * plays as a Tor and a Tor as a Xor. Reading twice gives the type back.
+     *
+     * @param phaseFlipped Whether Xor and Tor are swapped.
+     * @return The type as it plays in that phase.
+     */
+    public PieceType phased(boolean phaseFlipped) {
+        if (!phaseFlipped) {
+            return this;
+        }
+        return this == TOR ? XOR : this == XOR ? TOR : this;
+    }
+
+    /**
+     * Looks up a type by its KwazamPosition type number.
+     *
+     * @param code The type number, from KwazamPosition.RAM to KwazamPosition.SAU.
+     * @return The piece type.
+     */
+    public static PieceType fromCode(int code) {
+        return BY_CODE[code];
+    }
+
+    /**
+     * Looks up a type by the name used in the game and save files.
+     *
+     * @param name The piece name, e.g. "Ram".
+     * @return The piece type.
+     * @throws IllegalArgumentException If no piece has that name.
+     */
+    public static PieceType fromName(String name) {
+        for (PieceType type : values()) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown piece name: " + name);
+    }
+}
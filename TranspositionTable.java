@@ -0,0 +1,283 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table for game-tree search, kept outside the Java
+ * heap in direct ByteBuffers so that it costs the garbage collector nothing
+ * however large it is.
+ *
+ * The table is split into buckets of four 16-byte entries, one cache line per
+ * bucket. Each entry stores its data word and the position key XORed with that
+ * data. A reader only accepts an entry when the two words XOR back to its own
+ * key, so search threads can read and write the table at the same time without
+ * locks: an entry torn by a concurrent write simply looks like a miss.
+ */
+public class TranspositionTable {
+
+    // Bound types
+    public static final int BOUND_NONE = 0;
+    public static final int BOUND_UPPER = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_EXACT = 3;
+
+    /**
+     * Decides which entry of a full bucket a new position replaces.
+     */
+    public enum ReplacementPolicy {
+        /** Always replace the entry the key maps to within its bucket. */
+        ALWAYS,
+        /** Replace the entry searched to the smallest depth. */
+        DEPTH_PREFERRED,
+        /** Replace the entry searched to the smallest depth, treating entries from older searches as shallower. */
+        AGE_AND_DEPTH
+    }
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_BYTES = ENTRY_BYTES * BUCKET_ENTRIES;
+    private static final int SEGMENT_SHIFT = 30; // 1 GB per direct buffer
+    private static final int MAX_AGE = 256;
+
+    // Data word layout: 24 bits move, 16 bits score, 8 bits depth, 2 bits bound, 8 bits age.
+    private static final int SCORE_SHIFT = 24;
+    private static final int DEPTH_SHIFT = 40;
+    private static final int BOUND_SHIFT = 48;
+    private static final int AGE_SHIFT = 50;
+
+    private final ByteBuffer[] segments;
+    private final long bucketMask;
+    private final int bucketsPerSegmentShift;
+    private final ReplacementPolicy policy;
+    private volatile int age;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /**
+     * Creates a table using the age-and-depth replacement policy.
+     *
+     * @param megabytes The table size in megabytes, rounded down to a power of two.
+     */
+    public TranspositionTable(int megabytes) {
+        this(megabytes, ReplacementPolicy.AGE_AND_DEPTH);
+    }
+
+    /**
+     * Creates a table. Large tables may need the JVM started with a larger
+     * -XX:MaxDirectMemorySize.
+     *
+     * @param megabytes The table size in megabytes, rounded down to a power of two.
+     * @param policy The replacement policy.
+     */
+    public TranspositionTable(int megabytes, ReplacementPolicy policy) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Transposition table size must be at least 1 MB");
+        }
+        long bytes = Long.highestOneBit((long) megabytes) << 20;
+        long buckets = bytes / BUCKET_BYTES;
+        this.bucketMask = buckets - 1;
+        this.policy = policy;
+
+        long segmentBytes = Math.min(bytes, 1L << SEGMENT_SHIFT);
+        this.bucketsPerSegmentShift = Long.numberOfTrailingZeros(segmentBytes / BUCKET_BYTES);
+        this.segments = new ByteBuffer[(int) (bytes / segmentBytes)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) segmentBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    // Entry data accessors
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> SCORE_SHIFT);
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & 0xFF);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> BOUND_SHIFT) & 3);
+    }
+
+    private static int age(long data) {
+        return (int) ((data >>> AGE_SHIFT) & 0xFF);
+    }
+
+    private ByteBuffer segment(long bucket) {
+        return segments[(int) (bucket >>> bucketsPerSegmentShift)];
+    }
+
+    private int offset(long bucket) {
+        return (int) (bucket & ((1L << bucketsPerSegmentShift) - 1)) * BUCKET_BYTES;
+    }
+
+    /**
+     * Looks a position up.
+     *
+     * @param key The position key.
+     * @return The entry's data word, or 0 if the position is not in the table.
+     * Use move, score, depth and bound to unpack it.
+     */
+    public long probe(long key) {
+        probes.increment();
+        long bucket = key & bucketMask;
+        ByteBuffer buffer = segment(bucket);
+        int base = offset(bucket);
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int at = base + i * ENTRY_BYTES;
+            long data = buffer.getLong(at + 8);
+            if ((buffer.getLong(at) ^ data) == key && bound(data) != BOUND_NONE) {
+                hits.increment();
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Stores the result of searching a position.
+     *
+     * @param key The position key.
+     * @param move The best move found, or KwazamMove.NONE.
+     * @param score The score, which must fit in 16 bits.
+     * @param depth The depth searched, 0 to 255.
+     * @param bound One of BOUND_UPPER, BOUND_LOWER and BOUND_EXACT.
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        stores.increment();
+        long bucket = key & bucketMask;
+        ByteBuffer buffer = segment(bucket);
+        int base = offset(bucket);
+        int currentAge = age;
+
+        int victim = -1;
+        int victimValue = Integer.MAX_VALUE;
+        boolean replacing = true;
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int at = base + i * ENTRY_BYTES;
+            long data = buffer.getLong(at + 8);
+            if ((buffer.getLong(at) ^ data) == key || bound(data) == BOUND_NONE) {
+                // Same position, or an empty entry: always take it, keeping a known best move
+                if (move == KwazamMove.NONE && bound(data) != BOUND_NONE) {
+                    move = move(data);
+                }
+                victim = i;
+                replacing = false;
+                break;
+            }
+            int value;
+            switch (policy) {
+                case DEPTH_PREFERRED:
+                    value = depth(data);
+                    break;
+                case AGE_AND_DEPTH:
+                    value = depth(data) - 8 * ((currentAge - age(data) + MAX_AGE) & (MAX_AGE - 1));
+                    break;
+                default:
+                    value = i == (int) ((key >>> 62) & 3) ? Integer.MIN_VALUE : 0;
+                    break;
+            }
+            if (value < victimValue) {
+                victimValue = value;
+                victim = i;
+            }
+        }
+        if (replacing) {
+            overwrites.increment();
+        }
+
+        long data = (move & 0xFFFFFFL)
+                | ((score & 0xFFFFL) << SCORE_SHIFT)
+                | ((long) (depth & 0xFF) << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) currentAge << AGE_SHIFT);
+        int at = base + victim * ENTRY_BYTES;
+        buffer.putLong(at, key ^ data);
+        buffer.putLong(at + 8, data);
+    }
+
+    /**
+     * Starts a new search, so that entries from earlier searches age and are
+     * replaced first.
+     */
+    public void newSearch() {
+        age = (age + 1) & (MAX_AGE - 1);
+    }
+
+    /**
+     * Empties the table and resets its statistics.
+     */
+    public void clear() {
+        for (ByteBuffer segment : segments) {
+            for (int at = 0; at < segment.capacity(); at += 8) {
+                segment.putLong(at, 0L);
+            }
+        }
+        probes.reset();
+        hits.reset();
+        stores.reset();
+        overwrites.reset();
+    }
+
+    // Statistics
+
+    public long getSizeInBytes() {
+        return (bucketMask + 1) * BUCKET_BYTES;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getOverwrites() {
+        return overwrites.sum();
+    }
+
+    public double getHitRate() {
+        long p = probes.sum();
+        return p == 0 ? 0.0 : (double) hits.sum() / p;
+    }
+
+    /**
+     * Estimates how full the table is from the first thousand buckets.
+     *
+     * @return The share of sampled entries written by the current search, in permille.
+     */
+    public int getHashfull() {
+        long sampled = Math.min(1000, bucketMask + 1);
+        int used = 0;
+        for (long bucket = 0; bucket < sampled; bucket++) {
+            ByteBuffer buffer = segment(bucket);
+            int base = offset(bucket);
+            for (int i = 0; i < BUCKET_ENTRIES; i++) {
+                long data = buffer.getLong(base + i * ENTRY_BYTES + 8);
+                if (bound(data) != BOUND_NONE && age(data) == age) {
+                    used++;
+                }
+            }
+        }
+        return (int) (used * 1000 / (sampled * BUCKET_ENTRIES));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TranspositionTable{size=%d MB, policy=%s, probes=%d, hits=%d (%.1f%%), stores=%d, overwrites=%d}",
+                getSizeInBytes() >> 20, policy, getProbes(), getHits(), 100.0 * getHitRate(), getStores(), getOverwrites());
+    }
+}